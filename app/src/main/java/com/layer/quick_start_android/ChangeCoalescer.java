@@ -0,0 +1,178 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.LayerObject;
+import com.layer.sdk.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Merges bursts of LayerChanges (like the ones delivered during the initial sync, or when a peer
+ * reads a lot of messages at once) into a single batch, so the UI is refreshed once per window
+ * instead of once per change event.
+ *
+ * Changes are merged per object id:
+ *  - An INSERT followed by UPDATEs is emitted as just the INSERT (the object is read when the batch
+ *    is handled, so it already has the latest values)
+ *  - Repeated UPDATEs of the same attribute collapse into the latest one
+ *  - A DELETE replaces anything queued before it, and an INSERT followed by a DELETE is dropped
+ *
+ * Objects are emitted in the order they first appeared in the window.
+ */
+public class ChangeCoalescer {
+
+    //Roughly two frames, which is long enough to catch a burst without the UI feeling laggy
+    public static final long DEFAULT_WINDOW_MS = 32;
+
+    //Receives the merged changes once the window closes
+    public interface Listener {
+        void onChangesCoalesced(List<LayerChange> changes);
+    }
+
+    //The changes queued up for a single object
+    private static class PendingObject {
+
+        //The INSERT or DELETE for the object, if there was one
+        LayerChange lifecycle;
+
+        //The latest UPDATE for each attribute, in the order the attributes were first changed
+        LinkedHashMap<String, LayerChange> updates = new LinkedHashMap<>();
+    }
+
+    private Listener listener;
+    private Timing.Scheduler scheduler;
+    private long windowMillis;
+
+    //The changes waiting for the window to close, keyed by object id
+    private LinkedHashMap<Uri, PendingObject> pending;
+    private boolean flushScheduled;
+
+    //Counters for how much work the coalescer saved
+    private long eventsReceived;
+    private long changesReceived;
+    private long changesEmitted;
+    private long batchesEmitted;
+
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    //Flushes on the main thread once the default window has passed
+    public ChangeCoalescer(Listener listener) {
+        this(listener, Timing.mainThreadScheduler(), DEFAULT_WINDOW_MS);
+    }
+
+    //Swap out the scheduler to drive the coalescer from a test without a Looper (see Timing.java)
+    public ChangeCoalescer(Listener listener, Timing.Scheduler scheduler, long windowMillis) {
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.windowMillis = windowMillis;
+        pending = new LinkedHashMap<>();
+    }
+
+    //Queues the changes from a single change event, and starts the window if it isn't open yet
+    public void add(List<LayerChange> changes) {
+        eventsReceived++;
+
+        for (int i = 0; i < changes.size(); i++)
+            merge(changes.get(i));
+
+        if (!flushScheduled && !pending.isEmpty()) {
+            flushScheduled = true;
+            scheduler.schedule(flushRunnable, windowMillis);
+        }
+    }
+
+    //Emits everything that is queued right away
+    public void flush() {
+        flushScheduled = false;
+        if (pending.isEmpty())
+            return;
+
+        List<LayerChange> batch = new ArrayList<>();
+        for (PendingObject object : pending.values()) {
+            if (object.lifecycle != null)
+                batch.add(object.lifecycle);
+            else
+                batch.addAll(object.updates.values());
+        }
+        pending.clear();
+
+        changesEmitted += batch.size();
+        batchesEmitted++;
+        listener.onChangesCoalesced(batch);
+    }
+
+    //Number of change events handed to the coalescer
+    public long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    //Number of individual changes handed to the coalescer
+    public long getChangesReceived() {
+        return changesReceived;
+    }
+
+    //Number of changes that were merged away, including the ones that are still queued
+    public long getChangesCoalesced() {
+        return changesReceived - changesEmitted;
+    }
+
+    //Number of batches handed to the listener
+    public long getBatchesEmitted() {
+        return batchesEmitted;
+    }
+
+    //Folds a single change into whatever is already queued for the same object
+    private void merge(LayerChange change) {
+        changesReceived++;
+
+        Uri id = getObjectId(change);
+        PendingObject object = pending.get(id);
+        if (object == null) {
+            object = new PendingObject();
+            pending.put(id, object);
+        }
+
+        switch (change.getChangeType()) {
+            case INSERT:
+                object.lifecycle = change;
+                object.updates.clear();
+                break;
+
+            case UPDATE:
+                //An INSERT or DELETE already covers this update
+                if (object.lifecycle == null)
+                    object.updates.put(change.getAttributeName(), change);
+                break;
+
+            case DELETE:
+                //The object was created and removed within the window, so nobody needs to know
+                if (object.lifecycle != null && object.lifecycle.getChangeType() == LayerChange
+                        .Type.INSERT) {
+                    pending.remove(id);
+                    break;
+                }
+
+                object.lifecycle = change;
+                object.updates.clear();
+                break;
+        }
+    }
+
+    //Returns the id of the conversation or message that changed
+    private static Uri getObjectId(LayerChange change) {
+        if (change.getObjectType() == LayerObject.Type.CONVERSATION)
+            return ((Conversation) change.getObject()).getId();
+
+        return ((Message) change.getObject()).getId();
+    }
+}
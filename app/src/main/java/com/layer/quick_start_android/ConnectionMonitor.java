@@ -0,0 +1,132 @@
+package com.layer.quick_start_android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps track of whether the app can talk to Layer right now, and how the connection has behaved
+ * over time.
+ *
+ * The monitor is a small state machine fed by MyConnectionListener. It is CONNECTED while the
+ * connection is up, DISCONNECTED after the connection was closed, and BACKOFF after an attempt to
+ * connect failed and the SDK is waiting to try again. Everything that only makes sense while
+ * connected (typing indicators, metadata writes, the outbox) follows the state instead of failing
+ * or piling up inside the SDK.
+ *
+ * An outage lasts from the moment a connection is lost until the next one is established. The
+ * monitor counts reconnects and failed attempts, and records how long each outage lasted.
+ */
+public class ConnectionMonitor {
+
+    private static final String TAG = ConnectionMonitor.class.getSimpleName();
+
+    public enum State {
+        CONNECTED,
+        DISCONNECTED,
+        BACKOFF
+    }
+
+    private State state = State.DISCONNECTED;
+
+    //When the current outage started, or -1 if there isn't one. Connecting for the first time isn't
+    // an outage
+    private long outageStartedAt = -1;
+
+    private int reconnectCount;
+    private int errorCount;
+    private int errorsThisOutage;
+    private long lastOutageMs = -1;
+    private long longestOutageMs;
+    private long totalOutageMs;
+
+    //Call when the connection is established. Returns true if the state changed
+    public synchronized boolean onConnected() {
+        if (state == State.CONNECTED)
+            return false;
+
+        if (outageStartedAt >= 0) {
+            lastOutageMs = SystemClock.elapsedRealtime() - outageStartedAt;
+            longestOutageMs = Math.max(longestOutageMs, lastOutageMs);
+            totalOutageMs += lastOutageMs;
+            reconnectCount++;
+            outageStartedAt = -1;
+
+            Log.v(TAG, "Reconnected after " + lastOutageMs + "ms and " + errorsThisOutage +
+                    " failed attempts (" + format() + ")");
+        }
+
+        errorsThisOutage = 0;
+        state = State.CONNECTED;
+        return true;
+    }
+
+    //Call when the connection was closed. Returns true if the state changed
+    public synchronized boolean onDisconnected() {
+        return leave(State.DISCONNECTED);
+    }
+
+    //Call when connecting failed. The SDK tries again by itself. Returns true if the state changed
+    public synchronized boolean onError() {
+        errorCount++;
+        errorsThisOutage++;
+        return leave(State.BACKOFF);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    //Number of times the connection came back after being lost
+    public synchronized int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    //Number of failed attempts to connect
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    //How long it took to reconnect the last time the connection was lost, or -1 if it never was
+    public synchronized long getLastOutageMs() {
+        return lastOutageMs;
+    }
+
+    public synchronized long getLongestOutageMs() {
+        return longestOutageMs;
+    }
+
+    //Time spent without a connection in all the outages that have ended
+    public synchronized long getTotalOutageMs() {
+        return totalOutageMs;
+    }
+
+    //How long the connection has been down for, or 0 if it is up
+    public synchronized long getCurrentOutageMs() {
+        if (outageStartedAt < 0)
+            return 0;
+
+        return SystemClock.elapsedRealtime() - outageStartedAt;
+    }
+
+    public synchronized String format() {
+        return "state: " + state + ", reconnects: " + reconnectCount + ", failed attempts: " +
+                errorCount + ", longest outage: " + longestOutageMs + "ms, total outage: " +
+                totalOutageMs + "ms";
+    }
+
+    //Moves to a state without a connection, starting an outage if the connection was up
+    private boolean leave(State next) {
+        if (state == State.CONNECTED)
+            outageStartedAt = SystemClock.elapsedRealtime();
+
+        if (state == next)
+            return false;
+
+        state = next;
+        return true;
+    }
+}
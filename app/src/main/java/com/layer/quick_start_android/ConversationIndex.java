@@ -0,0 +1,170 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps every conversation the user is part of in memory, so switching between conversations
+ * doesn't have to query the SDK.
+ *
+ * The index is filled once from a single query, and then kept up to date from CONVERSATION change
+ * events. Looking a conversation up by id is constant time, and the conversations are kept sorted
+ * by the time of their last message (newest first), so the list never has to be re-sorted as a
+ * whole. A ParticipantIndex is kept alongside, so the conversation between a set of participants
+ * can be found without a query as well.
+ *
+ * All methods must be called from the main thread.
+ */
+public class ConversationIndex {
+
+    //Every conversation in the index, newest last message first
+    private ArrayList<Conversation> ordered;
+
+    //The conversations by id, along with the last message time each one is sorted by. The time is
+    // remembered because the conversation's own last message has already changed by the time the
+    // UPDATE arrives, and the old time is needed to find it in the ordered list
+    private HashMap<Uri, Conversation> byId;
+    private HashMap<Uri, Long> sortTimes;
+
+    private ParticipantIndex participantIndex;
+
+    private boolean loaded;
+
+    public ConversationIndex() {
+        ordered = new ArrayList<>();
+        byId = new HashMap<>();
+        sortTimes = new HashMap<>();
+        participantIndex = new ParticipantIndex();
+    }
+
+    //Fills the index with the result of the initial query. Conversations that change events have
+    // already added are newer than the query result, so they are kept as they are
+    public void addAll(List<Conversation> conversations) {
+        for (int i = 0; i < conversations.size(); i++) {
+            Conversation conversation = conversations.get(i);
+            if (!conversation.isDeleted() && !byId.containsKey(conversation.getId()))
+                insert(conversation);
+        }
+
+        loaded = true;
+    }
+
+    //Adds a conversation without waiting for its change event, for conversations this client has
+    // just created. Does nothing if the conversation is already in the index
+    public void add(Conversation conversation) {
+        if (!conversation.isDeleted() && !byId.containsKey(conversation.getId()))
+            insert(conversation);
+    }
+
+    //Returns true once the initial query has been added
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    //Returns the conversation with this id, or null if the user isn't part of it
+    public Conversation get(Uri id) {
+        return byId.get(id);
+    }
+
+    //Returns the newest conversation between exactly these participants, or null if there isn't
+    // one
+    public Conversation findByParticipants(Collection<String> participants) {
+        return participantIndex.get(participants);
+    }
+
+    //All conversations, newest last message first
+    public List<Conversation> getConversations() {
+        return Collections.unmodifiableList(ordered);
+    }
+
+    public int size() {
+        return ordered.size();
+    }
+
+    //Applies a CONVERSATION change. Changes to other types of objects are ignored
+    public void onChange(LayerChange change) {
+        if (!(change.getObject() instanceof Conversation))
+            return;
+
+        Conversation conversation = (Conversation) change.getObject();
+        switch (change.getChangeType()) {
+            case INSERT:
+            case UPDATE:
+                remove(conversation.getId());
+                if (!conversation.isDeleted())
+                    insert(conversation);
+                break;
+
+            case DELETE:
+                remove(conversation.getId());
+                break;
+        }
+    }
+
+    //The time the conversation is sorted by: when its last message was received (or sent, if it
+    // hasn't been received yet), or when it was created if it has no messages
+    public static long getLastMessageTime(Conversation conversation) {
+        Message last = conversation.getLastMessage();
+        Date time = null;
+        if (last != null)
+            time = (last.getReceivedAt() != null) ? last.getReceivedAt() : last.getSentAt();
+
+        if (time == null)
+            time = conversation.getCreatedAt();
+
+        return (time == null) ? 0 : time.getTime();
+    }
+
+    private void insert(Conversation conversation) {
+        long time = getLastMessageTime(conversation);
+        ordered.add(indexFor(time), conversation);
+        byId.put(conversation.getId(), conversation);
+        sortTimes.put(conversation.getId(), time);
+        participantIndex.add(conversation);
+    }
+
+    private void remove(Uri id) {
+        if (byId.remove(id) == null)
+            return;
+
+        participantIndex.remove(id);
+
+        //Narrow the search down to the conversations with the same sort time, then find this one.
+        // The binary search still needs this conversation's sort time, so it is forgotten last
+        long time = sortTimes.get(id);
+        for (int i = indexFor(time) - 1; i >= 0; i--) {
+            if (ordered.get(i).getId().equals(id)) {
+                ordered.remove(i);
+                break;
+            }
+        }
+
+        sortTimes.remove(id);
+    }
+
+    //Binary search for where a conversation with this sort time goes, after any conversations
+    // with the same time
+    private int indexFor(long time) {
+        int low = 0;
+        int high = ordered.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortTimes.get(ordered.get(mid).getId()) >= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+}
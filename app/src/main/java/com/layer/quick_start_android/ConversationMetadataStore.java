@@ -0,0 +1,155 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Metadata;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the app's state in each conversation's metadata, like the top bar color.
+ *
+ * Values are encoded with MetadataCodec. Each conversation's metadata is wrapped in a
+ * MetadataCodec.Reader that decodes a field the first time it is asked for, and the reader is only
+ * replaced after a CONVERSATION UPDATE to its metadata arrives. Writes are visible straight away,
+ * but are held back for a short while so that a burst of changes (like tapping the top bar
+ * repeatedly, or changing several fields at once) turns into a single merged putMetadata() per
+ * conversation. While paused (because there is no connection), writes keep being merged and are
+ * only written once the store is resumed, or when flush() is called.
+ *
+ * All methods must be called from the main thread.
+ */
+public class ConversationMetadataStore {
+
+    //The name of the attribute in a conversation UPDATE change when its metadata changes
+    public static final String METADATA_ATTRIBUTE = "metadata";
+
+    //Writes are held back this long, and merged with any writes that arrive in the meantime
+    public static final long WRITE_DELAY_MS = 500;
+
+    //The decoded metadata of each conversation
+    private HashMap<Uri, MetadataCodec.Reader> readers;
+
+    //Values that haven't been written to the conversations yet
+    private LinkedHashMap<Uri, Conversation> pendingConversations;
+    private HashMap<Uri, HashMap<MetadataCodec.Field<?>, Object>> pendingValues;
+
+    private Handler handler;
+    private boolean flushScheduled;
+    private boolean paused;
+
+    private Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            if (!paused)
+                flush();
+        }
+    };
+
+    public ConversationMetadataStore() {
+        readers = new HashMap<>();
+        pendingConversations = new LinkedHashMap<>();
+        pendingValues = new HashMap<>();
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    //Returns true if the change means the cached metadata for a conversation is out of date
+    public static boolean isMetadataChange(String attributeName) {
+        return attributeName != null && attributeName.startsWith(METADATA_ATTRIBUTE);
+    }
+
+    //Returns the conversation's top bar color, or null if it doesn't have one
+    public Integer getBackgroundColor(Conversation conversation) {
+        return get(conversation, MetadataCodec.BACKGROUND_COLOR);
+    }
+
+    //Sets the conversation's top bar color
+    public void setBackgroundColor(Conversation conversation, int color) {
+        set(conversation, MetadataCodec.BACKGROUND_COLOR, color);
+    }
+
+    //Returns the value of the field, or null if it isn't set. The metadata is only decoded the
+    // first time, or after it has changed
+    @SuppressWarnings("unchecked")
+    public <T> T get(Conversation conversation, MetadataCodec.Field<T> field) {
+        Uri id = conversation.getId();
+
+        //A value that hasn't been written yet is newer than whatever the metadata says
+        HashMap<MetadataCodec.Field<?>, Object> pending = pendingValues.get(id);
+        if (pending != null && pending.containsKey(field))
+            return (T) pending.get(field);
+
+        MetadataCodec.Reader reader = readers.get(id);
+        if (reader == null) {
+            reader = new MetadataCodec.Reader(conversation.getMetadata());
+            readers.put(id, reader);
+        }
+
+        return reader.get(field);
+    }
+
+    //Sets the value of the field. The metadata is written after a short delay, along with any
+    // other values set in the meantime
+    public <T> void set(Conversation conversation, MetadataCodec.Field<T> field, T value) {
+        Uri id = conversation.getId();
+
+        HashMap<MetadataCodec.Field<?>, Object> pending = pendingValues.get(id);
+        if (pending == null) {
+            pending = new HashMap<>();
+            pendingValues.put(id, pending);
+            pendingConversations.put(id, conversation);
+        }
+        pending.put(field, value);
+
+        if (!flushScheduled && !paused) {
+            flushScheduled = true;
+            handler.postDelayed(flush, WRITE_DELAY_MS);
+        }
+    }
+
+    //Holds back writes, for example while there is no connection. Resuming writes everything that
+    // was held back
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused && !pendingConversations.isEmpty())
+            flush();
+    }
+
+    //Forgets the decoded metadata, so it is decoded again the next time it is needed
+    public void invalidate(Uri conversationId) {
+        readers.remove(conversationId);
+    }
+
+    //Writes every pending value to its conversation straight away
+    public void flush() {
+        handler.removeCallbacks(flush);
+        flushScheduled = false;
+
+        //Each conversation gets a single merged write with everything that changed
+        for (Conversation conversation : pendingConversations.values()) {
+            Metadata metadata = Metadata.newInstance();
+            for (Map.Entry<MetadataCodec.Field<?>, Object> entry : pendingValues.get(conversation
+                    .getId()).entrySet())
+                put(metadata, entry.getKey(), entry.getValue());
+
+            //Merge this new information with the existing metadata (passing in false will replace
+            // the existing Map, passing in true ensures existing key/values are preserved)
+            conversation.putMetadata(metadata, true);
+        }
+
+        pendingConversations.clear();
+        pendingValues.clear();
+    }
+
+    //The pending values are stored untyped, this gives the value its field's type back
+    @SuppressWarnings("unchecked")
+    private static <T> void put(Metadata metadata, MetadataCodec.Field<T> field, Object value) {
+        MetadataCodec.put(metadata, field, (T) value);
+    }
+}
@@ -1,14 +1,16 @@
 package com.layer.quick_start_android;
 
 import android.graphics.Color;
+import android.net.Uri;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
-import android.widget.ScrollView;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.layer.sdk.LayerClient;
@@ -23,14 +25,13 @@ import com.layer.sdk.messaging.LayerObject;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessageOptions;
 import com.layer.sdk.messaging.MessagePart;
-import com.layer.sdk.messaging.Metadata;
 import com.layer.sdk.query.Predicate;
 import com.layer.sdk.query.Query;
 import com.layer.sdk.query.SortDescriptor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
 
@@ -38,40 +39,121 @@ import java.util.Random;
  * Handles the conversation between the pre-defined participants (Device, Emulator) and displays
  * messages in the GUI.
  */
-public class ConversationViewController implements View.OnClickListener, LayerChangeEventListener
-        .MainThread, TextWatcher, LayerTypingIndicatorListener, LayerSyncListener {
+public class ConversationViewController implements View.OnClickListener, View
+        .OnLongClickListener, LayerChangeEventListener.MainThread, TextWatcher,
+        LayerTypingIndicatorListener, LayerSyncListener, AbsListView.OnScrollListener,
+        ChangeCoalescer.Listener, TypingPresenceTracker.Listener, OutboundMessageQueue.Sender,
+        UnreadTracker.Listener {
 
     private static final String TAG = ConversationViewController.class.getSimpleName();
 
+    //Start loading the next older page once the user scrolls this close to the top of the list
+    private static final int PREFETCH_ROWS = 10;
+
+    //Once more pages than this are loaded, pages far above the screen are evicted
+    private static final int MAX_LOADED_PAGES = 4;
+
     private LayerClient layerClient;
 
     //GUI elements
     private Button sendButton;
     private LinearLayout topBar;
     private EditText userInput;
-    private ScrollView conversationScroll;
-    private LinearLayout conversationView;
+    private ListView conversationView;
     private TextView typingIndicator;
 
-    //List of all users currently typing
-    private ArrayList<String> typingUsers;
+    //All users currently typing, which is used with LayerTypingIndicatorListener
+    private TypingPresenceTracker typingUsers;
+
+    //Sends typing indicators for the local user, without flooding the other participants
+    private TypingIndicatorPublisher typingPublisher;
 
     //Current conversation
     private Conversation activeConversation;
 
-    //All messages
-    private Hashtable<String, MessageView> allMessages;
+    //Every conversation the user is part of, so switching conversations doesn't need a query
+    private ConversationIndex conversationIndex;
+
+    //A conversation that was asked for before the index finished loading
+    private Uri pendingConversationId;
+
+    //The conversation whose messages are currently in the conversation list
+    private Conversation drawnConversation;
+
+    //The messages displayed in the conversation list
+    private MessageAdapter messageAdapter;
+
+    //Loads the messages in the active conversation one page at a time. Only touched from the
+    // pipeline's worker thread
+    private MessagePager messagePager;
+
+    //Runs queries and message formatting off the main thread
+    private MessagePipeline pipeline;
+
+    //The aggregate recipient status of each message. Only touched from the pipeline's worker
+    // thread
+    private RecipientStatusCache statusCache;
+
+    //Merges bursts of change events into a single refresh
+    private ChangeCoalescer changeCoalescer;
+
+    //The listeners registered with the LayerClient while the screen is visible
+    private LayerSubscriptions subscriptions;
+
+    //Set once the screen has been stopped, since changes may have been missed while it was
+    private boolean stopped;
+
+    //Messages the user has sent that haven't been handed to the SDK yet
+    private OutboundMessageQueue outbox;
+
+    //The local id of the optimistic row for each message that has been handed to the SDK, until
+    // the message's INSERT arrives and takes the row's place
+    private HashMap<Uri, Uri> sentMessages;
+
+    //The decoded top bar color of each conversation
+    private ConversationMetadataStore metadataStore;
+
+    //Marks messages as read once they have been on screen
+    private ReadReceiptManager readReceipts;
+
+    //The unread count and read cursor of every conversation
+    private UnreadTracker unreadTracker;
+
+    //Set while an older page is being loaded, and once there are no older pages left
+    private boolean loadingOlder;
+    private boolean reachedStart;
+
+    //Set while a newer page is being loaded, and while the newest message is in the list (it
+    // isn't after jumping back to an old message)
+    private boolean loadingNewer;
+    private boolean reachedEnd = true;
+
+    //Set once older history has been requested from the server for the active conversation, so it
+    // is only requested once per sync
+    private boolean backfillRequested;
+
+    //Records how each sync went
+    private SyncTelemetry syncTelemetry;
 
     public ConversationViewController(MainActivity ma, LayerClient client) {
 
         //Cache off LayerClient
         layerClient = client;
 
-        //When conversations/messages change, capture them
-        layerClient.registerEventListener(this);
+        //When conversations/messages change, capture them. Bursts of changes are merged before
+        // the GUI is refreshed
+        changeCoalescer = new ChangeCoalescer(this);
+
+        //Users that are typing, which is used with LayerTypingIndicatorListener
+        typingUsers = new TypingPresenceTracker(this);
+        typingPublisher = new TypingIndicatorPublisher();
+        syncTelemetry = MainActivity.getSyncTelemetry();
 
-        //List of users that are typing which is used with LayerTypingIndicatorListener
-        typingUsers = new ArrayList<>();
+        //The listeners are only registered between onStart() and onStop()
+        subscriptions = new LayerSubscriptions(layerClient)
+                .add(LayerSubscriptions.events(this))
+                .add(LayerSubscriptions.sync(this))
+                .add(LayerSubscriptions.typingIndicators(this));
 
         //Change the layout
         ma.setContentView(R.layout.activity_main);
@@ -80,51 +162,141 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
         sendButton = (Button) ma.findViewById(R.id.send);
         topBar = (LinearLayout) ma.findViewById(R.id.topbar);
         userInput = (EditText) ma.findViewById(R.id.input);
-        conversationScroll = (ScrollView) ma.findViewById(R.id.scrollView);
-        conversationView = (LinearLayout) ma.findViewById(R.id.conversation);
+        conversationView = (ListView) ma.findViewById(R.id.conversation);
         typingIndicator = (TextView) ma.findViewById(R.id.typingIndicator);
 
+        //Image parts are shown as thumbnails, which are decoded in the background. The renderer
+        // is shared by every controller, so it is only registered once
+        if (MessageView.getRenderer("image/*") == null)
+            MessageView.registerRenderer("image/*", new ImagePartRenderer(new ThumbnailLoader(ma
+                    .getApplicationContext())));
+
+        //The ListView only creates rows for the messages that are on screen
+        pipeline = new MessagePipeline();
+        readReceipts = new ReadReceiptManager(layerClient, pipeline);
+        unreadTracker = new UnreadTracker(this);
+        statusCache = new RecipientStatusCache(MainActivity.getUserID());
+        messageAdapter = new MessageAdapter();
+        conversationView.setAdapter(messageAdapter);
+        conversationView.setOnScrollListener(this);
+
+        metadataStore = new ConversationMetadataStore();
+
+        //Load the conversation list once, it is kept up to date from change events after that
+        conversationIndex = new ConversationIndex();
+        loadConversationIndex();
+        loadUnreadMessages();
+
         //Capture user input
         sendButton.setOnClickListener(this);
         topBar.setOnClickListener(this);
+        topBar.setOnLongClickListener(this);
         userInput.setText(getInitialMessage());
         userInput.addTextChangedListener(this);
 
-        //If there is an active conversation between the Device, Simulator, and Dashboard (web
-        // client), cache it
-        activeConversation = getConversation();
+        //Messages left over from the last time the app ran are sent as soon as possible
+        sentMessages = new HashMap<>();
+        outbox = new OutboundMessageQueue(ma, this);
+        onConnectionStateChanged(layerClient.isConnected() ? ConnectionMonitor.State.CONNECTED :
+                ConnectionMonitor.State.DISCONNECTED);
 
-        //If there is an active conversation, draw it
+        //If there is an active conversation between the Device, Simulator, and Dashboard (web
+        // client), cache it and draw it
         drawConversation();
-
-        if (activeConversation != null)
-            getTopBarMetaData();
+        StartupTimeline.mark(StartupTimeline.UI_READY);
     }
 
     public static String getInitialMessage() {
         return "Hey, everyone! This is your friend, " + MainActivity.getUserID();
     }
 
-    //Create a new message and send it
-    private void sendButtonClicked() {
+    //Call this from the Activity's onStart(). Registers the listeners, and if the screen was
+    // stopped before, catches up on the changes that were missed in the meantime
+    public void onStart() {
+        subscriptions.start();
 
-        //Check to see if there is an active conversation between the pre-defined participants
-        if (activeConversation == null) {
-            activeConversation = getConversation();
+        if (stopped) {
+            stopped = false;
+            refresh();
+        }
+    }
+
+    //Call this from the Activity's onStop(). Unregisters the listeners, and sends everything that
+    // is still being held back
+    public void onStop() {
+        subscriptions.stop();
+        stopped = true;
+
+        //Apply the changes that already arrived, since nothing new will arrive until onStart()
+        changeCoalescer.flush();
 
-            //If there isn't, create a new conversation with those participants
-            if (activeConversation == null) {
-                activeConversation = layerClient.newConversation(MainActivity.getAllParticipants());
+        typingPublisher.finish();
+        typingUsers.clear();
+        readReceipts.flush();
+        metadataStore.flush();
+    }
+
+    //Call this from the Activity's onDestroy(). The controller can't be used afterwards
+    public void destroy() {
+        onStop();
+        outbox.stop();
+
+        //Lets the last batch of read receipts from onStop() finish before the worker stops
+        pipeline.shutdown();
+    }
+
+    //Rebuilds everything that is kept up to date from change events, since some of them were
+    // missed while the listeners were unregistered
+    private void refresh() {
+        conversationIndex = new ConversationIndex();
+        unreadTracker = new UnreadTracker(this);
+        loadConversationIndex();
+        loadUnreadMessages();
+
+        //Without an active conversation, the index draws the default one once it has loaded
+        if (activeConversation != null)
+            drawConversation();
+    }
+
+    //Holds back everything that needs the connection while it is down, and sends it once it is
+    // back
+    public void onConnectionStateChanged(ConnectionMonitor.State state) {
+        boolean connected = state == ConnectionMonitor.State.CONNECTED;
+        outbox.setConnected(connected);
+        typingPublisher.setPaused(!connected);
+        metadataStore.setPaused(!connected);
+    }
+
+    //Queue up the message and show it straight away. The outbox sends it (creating the
+    // conversation if needed) as soon as it can
+    private void sendButtonClicked() {
+
+        Uri conversationId = (activeConversation != null) ? activeConversation.getId() : null;
+        OutboundMessageQueue.PendingMessage pending = outbox.enqueue(userInput.getText().toString(),
+                conversationId);
+
+        if (isPendingShown(pending)) {
+            if (reachedEnd) {
+                messageAdapter.addMessage(MessageItem.fromPending(pending, MainActivity
+                        .getUserID()));
+                messageAdapter.notifyDataSetChanged();
+                scrollToBottom();
+            } else {
+                //The list is showing older messages, so go back to the newest ones, which include
+                // this one
+                drawConversation();
             }
         }
 
-        sendMessage(userInput.getText().toString());
+        //The user is done typing this message
+        typingPublisher.finish();
 
         //Clears the text input field
         userInput.setText("");
     }
 
-    private void sendMessage(String text) {
+    //Sends the text to the conversation, and returns the new message
+    private Message sendMessage(Conversation conversation, String text) {
 
         //Put the user's text into a message part, which has a MIME type of "text/plain" by default
         MessagePart messagePart = layerClient.newMessagePart(text);
@@ -138,137 +310,637 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
         Message message = layerClient.newMessage(options, Arrays.asList(messagePart));
 
         //Sends the message
-        if (activeConversation != null)
-            activeConversation.send(message);
+        conversation.send(message);
+        return message;
+    }
+
+    //Returns true if the pending message belongs in the conversation that is on screen. Messages
+    // without a conversation go to the default one, which may not have been drawn yet
+    private boolean isPendingShown(OutboundMessageQueue.PendingMessage pending) {
+        if (pending.conversationId == null)
+            return drawnConversation == null || drawnConversation == conversationIndex
+                    .findByParticipants(MainActivity.getAllParticipants());
+
+        return drawnConversation != null && pending.conversationId.equals(drawnConversation
+                .getId());
     }
 
     //Create a random color and apply it to the Layer logo bar
     private void topBarClicked() {
 
         Random r = new Random();
-        float red = r.nextFloat();
-        float green = r.nextFloat();
-        float blue = r.nextFloat();
+        int color = Color.argb(255, r.nextInt(256), r.nextInt(256), r.nextInt(256));
+
+        //Store the color in the conversation's metadata. Taps that come in quick succession are
+        // merged into a single write
+        if (activeConversation != null)
+            metadataStore.setBackgroundColor(activeConversation, color);
 
-        setTopBarMetaData(red, green, blue);
-        setTopBarColor(red, green, blue);
+        setTopBarColor(color);
     }
 
-    //Checks to see if there is already a conversation between the device and emulator
-    private Conversation getConversation() {
+    //Switches to the conversation with this id and draws it. If the conversation list hasn't been
+    // loaded yet, the switch happens once it has. Returns false if the user isn't part of the
+    // conversation
+    public boolean showConversation(Uri conversationId) {
+        if (conversationId == null)
+            return false;
 
-        if (activeConversation == null) {
+        if (!conversationIndex.isLoaded()) {
+            pendingConversationId = conversationId;
+            return true;
+        }
+
+        Conversation conversation = conversationIndex.get(conversationId);
+        if (conversation == null)
+            return false;
+
+        if (conversation != activeConversation) {
+            typingPublisher.finish();
+            activeConversation = conversation;
+            drawConversation();
+        }
+
+        return true;
+    }
 
-            Query query = Query.builder(Conversation.class)
-                    .predicate(new Predicate(Conversation.Property.PARTICIPANTS, Predicate
-                            .Operator.EQUAL_TO, MainActivity.getAllParticipants()))
-                    .sortDescriptor(new SortDescriptor(Conversation.Property.CREATED_AT,
-                            SortDescriptor.Order.DESCENDING)).build();
+    //All of the user's conversations, newest last message first
+    public List<Conversation> getConversations() {
+        return conversationIndex.getConversations();
+    }
 
-            List<Conversation> results = layerClient.executeQuery(query, Query.ResultType.OBJECTS);
-            if (results != null && results.size() > 0) {
-                return results.get(0);
+    //Queries for all of the user's conversations on the worker thread and fills the index with
+    // them. Conversations are only ever queried this once
+    private void loadConversationIndex() {
+        pipeline.run(new MessagePipeline.Task<List<Conversation>>() {
+            public List<Conversation> doInBackground() {
+                List<Conversation> results = layerClient.executeQuery(Query.builder(Conversation
+                        .class).build(), Query.ResultType.OBJECTS);
+                return (results != null) ? results : new ArrayList<Conversation>();
             }
+
+            public void onResult(List<Conversation> conversations) {
+
+                //The index is loaded again the next time the screen is started
+                if (conversations == null)
+                    return;
+
+                conversationIndex.addAll(conversations);
+                Log.v(TAG, "Indexed " + conversationIndex.size() + " conversations");
+
+                if (pendingConversationId != null) {
+                    Uri conversationId = pendingConversationId;
+                    pendingConversationId = null;
+                    showConversation(conversationId);
+                }
+
+                //The default conversation can be looked up now
+                if (activeConversation == null)
+                    drawConversation();
+            }
+        });
+    }
+
+    //Returns the number of unread messages in the conversation
+    public int getUnreadCount(Uri conversationId) {
+        return unreadTracker.getUnreadCount(conversationId);
+    }
+
+    //Returns the number of unread messages across every conversation
+    public int getTotalUnreadCount() {
+        return unreadTracker.getTotalUnreadCount();
+    }
+
+    //Scrolls the active conversation to its oldest unread message. If it isn't loaded yet, the
+    // loaded messages are replaced with the ones starting at the unread message, and older and
+    // newer pages are loaded from there as the user scrolls
+    public void jumpToFirstUnread() {
+        if (activeConversation == null || activeConversation != drawnConversation)
+            return;
+
+        //Let a page that is already on its way land first
+        if (loadingOlder || loadingNewer)
+            return;
+
+        final long position = unreadTracker.getFirstUnreadPosition(activeConversation.getId());
+        if (position < 0)
+            return;
+
+        if (isInList(position)) {
+            conversationView.setSelection(messageAdapter.getIndexAtOrAfter(position));
+            return;
         }
 
-        //Returns the active conversation (which is null by default)
-        return activeConversation;
+        loadingOlder = true;
+        loadingNewer = true;
+        pipeline.submit(new MessagePipeline.Task<List<MessageItem>>() {
+
+            //Whether the newest message in the conversation was loaded as well
+            private boolean includesNewest;
+
+            public List<MessageItem> doInBackground() {
+                if (messagePager == null)
+                    return null;
+
+                List<MessageItem> items = prepareMessages(messagePager.loadPageAt(position));
+                includesNewest = !messagePager.hasNewerPages();
+                return items;
+            }
+
+            public void onResult(List<MessageItem> items) {
+                loadingOlder = false;
+                loadingNewer = false;
+                if (items == null)
+                    return;
+
+                reachedStart = false;
+                reachedEnd = includesNewest;
+
+                messageAdapter.clear();
+                for (int i = 0; i < items.size(); i++)
+                    messageAdapter.addMessage(items.get(i));
+                if (reachedEnd)
+                    addPendingRows();
+                messageAdapter.notifyDataSetChanged();
+
+                conversationView.setSelection(messageAdapter.getIndexAtOrAfter(position));
+            }
+        });
     }
 
-    //Redraws the conversation window in the GUI
-    private void drawConversation() {
+    //Returns true if the message at this position falls between the oldest and newest messages in
+    // the list
+    private boolean isInList(long position) {
+        int count = messageAdapter.getCount();
+        if (count == 0 || position < messageAdapter.getOldestPosition())
+            return false;
 
-        //Only proceed if there is a valid conversation
-        if (activeConversation != null) {
+        return reachedEnd || position <= messageAdapter.getItem(count - 1).getPosition();
+    }
 
-            //Clear the GUI first and empty the list of stored messages
-            conversationView.removeAllViews();
-            allMessages = new Hashtable<String, MessageView>();
+    //Queries for the messages that haven't been read yet, once at startup, to seed the unread
+    // counts. After that they are kept up to date from change events
+    private void loadUnreadMessages() {
+        pipeline.run(new MessagePipeline.Task<List<Message>>() {
+            public List<Message> doInBackground() {
+                Query query = Query.builder(Message.class)
+                        .predicate(new Predicate(Message.Property.IS_UNREAD, Predicate.Operator
+                                .EQUAL_TO, true)).build();
+
+                List<Message> results = layerClient.executeQuery(query, Query.ResultType.OBJECTS);
+                List<Message> unread = new ArrayList<>();
+                if (results == null)
+                    return unread;
+
+                for (int i = 0; i < results.size(); i++) {
+                    if (isUnread(results.get(i)))
+                        unread.add(results.get(i));
+                }
 
-            //Grab all the messages from the conversation and add them to the GUI
-            List<Message> allMsgs = layerClient.getMessages(activeConversation);
-            for (int i = 0; i < allMsgs.size(); i++) {
-                addMessageToView(allMsgs.get(i));
+                return unread;
             }
 
-            //After redrawing, force the scroll view to the bottom (most recent message)
-            conversationScroll.post(new Runnable() {
-                @Override
-                public void run() {
-                    conversationScroll.fullScroll(View.FOCUS_DOWN);
+            public void onResult(List<Message> unread) {
+                if (unread == null)
+                    return;
+
+                for (int i = 0; i < unread.size(); i++) {
+                    Message message = unread.get(i);
+                    unreadTracker.onUnreadMessage(message.getConversation().getId(), message
+                            .getPosition());
                 }
-            });
+            }
+        });
+    }
+
+    //Returns true if someone else sent the message and the local user hasn't read it
+    private boolean isUnread(Message message) {
+        if (message.getSender() == null || message.getSender().getUserId() == null)
+            return false;
+
+        String userId = layerClient.getAuthenticatedUserId();
+        return !message.getSender().getUserId().equalsIgnoreCase(userId) && message
+                .getRecipientStatus(userId) != Message.RecipientStatus.READ;
+    }
+
+    //Checks to see if there is already a conversation between the device and emulator
+    private Conversation getConversation() {
+
+        //Returns the active conversation
+        if (activeConversation != null)
+            return activeConversation;
+
+        return findDefaultConversation();
+    }
+
+    //Finds the newest conversation between the pre-defined participants, or returns null if there
+    // isn't one yet
+    private Conversation findDefaultConversation() {
+
+        //Once the conversation list is loaded this is just a map lookup, which is also kept up to
+        // date with conversations created after it was loaded
+        if (conversationIndex.isLoaded())
+            return conversationIndex.findByParticipants(MainActivity.getAllParticipants());
+
+        return findConversation();
+    }
+
+    //Queries for the newest conversation between the pre-defined participants, or returns null if
+    // there isn't one yet. This is only needed if the user sends a message before the
+    // conversation list has been loaded
+    private Conversation findConversation() {
+
+        Query query = Query.builder(Conversation.class)
+                .predicate(new Predicate(Conversation.Property.PARTICIPANTS, Predicate
+                        .Operator.EQUAL_TO, MainActivity.getAllParticipants()))
+                .sortDescriptor(new SortDescriptor(Conversation.Property.CREATED_AT,
+                        SortDescriptor.Order.DESCENDING)).build();
+
+        List<Conversation> results = layerClient.executeQuery(query, Query.ResultType.OBJECTS);
+        if (results != null && results.size() > 0) {
+            return results.get(0);
         }
+
+        return null;
     }
 
-    //Creates a GUI element (header and body) for each Message
-    private void addMessageToView(Message msg) {
+    //Queries for the conversation with this id. Returns null if the query failed, or an empty list
+    // if the conversation doesn't exist
+    private List<Conversation> queryConversation(Uri conversationId) {
 
-        //Make sure the message is valid
-        if (msg == null || msg.getSender() == null || msg.getSender().getUserId() == null)
+        Query query = Query.builder(Conversation.class)
+                .predicate(new Predicate(Conversation.Property.ID, Predicate.Operator.EQUAL_TO,
+                        conversationId))
+                .limit(1).build();
+
+        return layerClient.executeQuery(query, Query.ResultType.OBJECTS);
+    }
+
+    //Redraws the conversation window in the GUI. If there is no active conversation yet, this
+    // looks for one in the conversation list first. The query and formatting happen on the
+    // pipeline's worker thread
+    private void drawConversation() {
+
+        //Only proceed if there is a valid conversation. Until the conversation list has been
+        // loaded there is nothing to look in, and it will draw the conversation once it has
+        if (activeConversation == null && !conversationIndex.isLoaded())
+            return;
+
+        final Conversation conversation = getConversation();
+        if (conversation == null)
             return;
 
-        //Once the message has been displayed, we mark it as read
-        //NOTE: the sender of a message CANNOT mark their own message as read
-        if (!msg.getSender().getUserId().equalsIgnoreCase(layerClient.getAuthenticatedUserId()))
-            msg.markAsRead();
+        loadingOlder = false;
+        reachedStart = false;
+        loadingNewer = false;
+        reachedEnd = true;
+        backfillRequested = false;
+
+        pipeline.reload(new MessagePipeline.Task<List<MessageItem>>() {
 
-        //Grab the message id
-        String msgId = msg.getId().toString();
+            public List<MessageItem> doInBackground() {
 
-        //If we have already added this message to the GUI, skip it
-        if (!allMessages.contains(msgId)) {
-            //Build the GUI element and save it
-            MessageView msgView = new MessageView(conversationView, msg);
-            allMessages.put(msgId, msgView);
+                if (messagePager == null || messagePager.getConversation() != conversation) {
+                    messagePager = new MessagePager(layerClient, conversation);
+
+                    //The statuses are worked out against the participants of this conversation
+                    statusCache.setParticipants(conversation.getParticipants());
+                }
+
+                //Grab the newest page of messages from the conversation. Older pages are loaded as
+                // the user scrolls up
+                return prepareMessages(messagePager.loadNewestPage());
+            }
+
+            public void onResult(List<MessageItem> items) {
+                if (items == null)
+                    return;
+
+                boolean conversationChanged = (drawnConversation != conversation);
+                activeConversation = conversation;
+                drawnConversation = conversation;
+
+                //Typing indicators from the previous conversation no longer apply
+                if (conversationChanged)
+                    typingUsers.clear();
+
+                //Empty the list of stored messages and add the new ones. Messages that were sent
+                // are in the query result, so their optimistic rows don't need replacing anymore
+                messageAdapter.clear();
+                sentMessages.clear();
+                for (int i = 0; i < items.size(); i++)
+                    messageAdapter.addMessage(items.get(i));
+
+                addPendingRows();
+                messageAdapter.notifyDataSetChanged();
+
+                //After redrawing, force the conversation view to the bottom (most recent message)
+                scrollToBottom();
+                StartupTimeline.mark(StartupTimeline.FIRST_MESSAGES_DRAWN);
+
+                if (conversationChanged)
+                    getTopBarMetaData();
+            }
+        });
+    }
+
+    //Messages that are still waiting to be sent go at the bottom, once the newest messages are in
+    // the list
+    private void addPendingRows() {
+        List<OutboundMessageQueue.PendingMessage> pending = outbox.getPending();
+        for (int i = 0; i < pending.size(); i++) {
+            if (isPendingShown(pending.get(i)))
+                messageAdapter.addMessage(MessageItem.fromPending(pending.get(i), MainActivity
+                        .getUserID()));
         }
     }
 
-    //Stores RGB values in the conversation's metadata
-    private void setTopBarMetaData(float red, float green, float blue) {
-        if (activeConversation != null) {
+    //Formats each Message for the conversation view. Runs on the worker thread
+    private List<MessageItem> prepareMessages(List<Message> msgs) {
+        List<MessageItem> items = new ArrayList<>(msgs.size());
+        for (int i = 0; i < msgs.size(); i++) {
+            MessageItem item = prepareMessage(msgs.get(i));
+            if (item != null)
+                items.add(item);
+        }
+
+        return items;
+    }
 
-            Metadata metadata = Metadata.newInstance();
+    //Formats a single Message for the conversation view, or returns null if the message is not
+    // valid. Runs on the worker thread
+    private MessageItem prepareMessage(Message msg) {
 
-            Metadata colors = Metadata.newInstance();
-            colors.put("red", Float.toString(red));
-            colors.put("green", Float.toString(green));
-            colors.put("blue", Float.toString(blue));
+        //Make sure the message is valid
+        if (msg == null || msg.getSender() == null || msg.getSender().getUserId() == null)
+            return null;
+
+        //Messages are marked as read by the ReadReceiptManager once they are actually on screen
+        return MessageItem.fromMessage(msg, statusCache, layerClient.getAuthenticatedUserId());
+    }
+
+    //Applies the message changes from a single change event to the GUI without redrawing the
+    // whole conversation. Returns false if the changes could not be mapped onto the displayed
+    // messages, in which case the conversation needs to be redrawn from scratch
+    private boolean applyMessageChanges(List<LayerChange> changes) {
 
-            metadata.put("backgroundColor", colors);
+        //Nothing has been drawn yet, so there is nothing to update incrementally
+        if (activeConversation == null || activeConversation != drawnConversation)
+            return false;
+
+        //Pick out the changes to messages in the active conversation. Anything more expensive
+        // than that is left to the worker thread
+        final List<LayerChange> messageChanges = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            LayerChange change = changes.get(i);
+
+            if (change.getObjectType() == LayerObject.Type.CONVERSATION) {
 
-            //Merge this new information with the existing metadata (passing in false will replace
-            // the existing Map, passing in true ensures existing key/values are preserved)
-            activeConversation.putMetadata(metadata, true);
+                //Metadata changes are handled by getTopBarMetaData(), anything structural about
+                // the active conversation (like it being deleted) requires a redraw
+                Conversation conversation = (Conversation) change.getObject();
+                if (conversation == activeConversation && change.getChangeType() != LayerChange
+                        .Type.UPDATE)
+                    return false;
+
+                continue;
+            }
+
+            Message message = (Message) change.getObject();
+            if (message.getConversation() == activeConversation)
+                messageChanges.add(change);
         }
+
+        if (messageChanges.isEmpty())
+            return true;
+
+        final Conversation conversation = activeConversation;
+        pipeline.submit(new MessagePipeline.Task<List<MessageItem>>() {
+
+            //The changes that were applied, lined up with the formatted messages
+            private List<LayerChange> applied = new ArrayList<>();
+
+            public List<MessageItem> doInBackground() {
+                List<MessageItem> items = new ArrayList<>();
+                if (messagePager == null || messagePager.getConversation() != conversation)
+                    return items;
+
+                for (int i = 0; i < messageChanges.size(); i++) {
+                    LayerChange change = messageChanges.get(i);
+                    Message message = (Message) change.getObject();
+
+                    //Only work out the message status again when it has actually changed
+                    if (change.getChangeType() == LayerChange.Type.DELETE || RecipientStatusCache
+                            .isStatusChange(change.getAttributeName()))
+                        statusCache.invalidate(message.getId());
+
+                    //Messages older than the loaded pages will be picked up when their page is
+                    // loaded
+                    if (!messagePager.isLoaded(message.getPosition()))
+                        continue;
+
+                    MessageItem item = null;
+                    if (change.getChangeType() != LayerChange.Type.DELETE) {
+                        item = prepareMessage(message);
+                        if (item == null)
+                            continue;
+                    }
+
+                    applied.add(change);
+                    items.add(item);
+                }
+
+                return items;
+            }
+
+            public void onResult(List<MessageItem> items) {
+
+                //The changes couldn't be formatted, so re-draw everything
+                if (items == null) {
+                    drawConversation();
+                    return;
+                }
+
+                boolean scrollToBottom = false;
+                for (int i = 0; i < applied.size(); i++) {
+                    LayerChange change = applied.get(i);
+                    MessageItem item = items.get(i);
+
+                    //A message the user sent has arrived, so it takes the place of its optimistic
+                    // row in the same refresh
+                    if (item != null) {
+                        Uri localId = sentMessages.remove(item.getId());
+                        if (localId != null)
+                            messageAdapter.removeMessage(localId);
+                    }
+
+                    switch (change.getChangeType()) {
+                        case INSERT:
+                            scrollToBottom |= messageAdapter.addMessage(item);
+                            break;
+
+                        case UPDATE:
+                            if (!messageAdapter.updateMessage(item))
+                                scrollToBottom |= messageAdapter.addMessage(item);
+                            break;
+
+                        case DELETE:
+                            messageAdapter.removeMessage(((Message) change.getObject()).getId());
+                            break;
+                    }
+                }
+
+                //Only the rows that are on screen get re-bound
+                messageAdapter.notifyDataSetChanged();
+
+                if (scrollToBottom)
+                    scrollToBottom();
+            }
+        });
+
+        return true;
     }
 
-    //Check the conversation's metadata for RGB values
-    private void getTopBarMetaData() {
-        if (activeConversation != null) {
+    //Force the conversation view to the bottom (most recent message)
+    private void scrollToBottom() {
+        conversationView.post(new Runnable() {
+            @Override
+            public void run() {
+                conversationView.setSelection(messageAdapter.getCount() - 1);
+            }
+        });
+    }
 
-            Metadata current = activeConversation.getMetadata();
-            if (current.containsKey("backgroundColor")) {
+    //Loads the next older page of messages and adds it above the current ones, keeping the rows
+    // that are on screen in place
+    private void loadOlderMessages() {
+        loadingOlder = true;
 
-                Metadata colors = (Metadata) current.get("backgroundColor");
+        pipeline.submit(new MessagePipeline.Task<List<MessageItem>>() {
+            public List<MessageItem> doInBackground() {
+                if (messagePager == null)
+                    return new ArrayList<>();
 
-                if (colors != null) {
+                return prepareMessages(messagePager.loadOlderPage());
+            }
 
-                    float red = Float.parseFloat((String) colors.get("red"));
-                    float green = Float.parseFloat((String) colors.get("green"));
-                    float blue = Float.parseFloat((String) colors.get("blue"));
+            public void onResult(List<MessageItem> items) {
+                loadingOlder = false;
 
-                    setTopBarColor(red, green, blue);
+                //The page will be asked for again the next time the user scrolls up
+                if (items == null)
+                    return;
+
+                if (items.isEmpty()) {
+                    reachedStart = true;
+                    return;
                 }
+
+                int added = messageAdapter.addOlderMessages(items);
+                if (added > 0)
+                    shiftRows(added);
             }
+        });
+    }
+
+    //Everything on the device has been loaded, but depending on the historic sync policy the server
+    // may have older messages. Ask for the next batch, which arrives as message INSERT changes
+    private void requestOlderHistory() {
+        backfillRequested = true;
+        if (activeConversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus
+                .MORE_AVAILABLE)
+            return;
+
+        activeConversation.syncMoreHistoricMessages(MessagePager.PAGE_SIZE);
+        syncTelemetry.onBackfillRequested();
+    }
+
+    //Loads the next newer page of messages and adds it below the current ones. Only needed after
+    // jumping back to an old message
+    private void loadNewerMessages() {
+        loadingNewer = true;
+
+        pipeline.submit(new MessagePipeline.Task<List<MessageItem>>() {
+
+            //Whether the page ends with the newest message in the conversation
+            private boolean includesNewest;
+
+            public List<MessageItem> doInBackground() {
+                if (messagePager == null)
+                    return new ArrayList<>();
+
+                List<MessageItem> items = prepareMessages(messagePager.loadNewerPage());
+                includesNewest = !messagePager.hasNewerPages();
+                return items;
+            }
+
+            public void onResult(List<MessageItem> items) {
+                loadingNewer = false;
+                if (items == null)
+                    return;
+
+                reachedEnd = includesNewest;
+
+                for (int i = 0; i < items.size(); i++)
+                    messageAdapter.addMessage(items.get(i));
+                if (reachedEnd)
+                    addPendingRows();
+                messageAdapter.notifyDataSetChanged();
+            }
+        });
+    }
+
+    //Drops the oldest page of messages once too many pages are in memory and the user has
+    // scrolled far enough down that they are well off screen
+    private void evictOlderMessages(int firstVisibleItem) {
+        int pageSize = MessagePager.PAGE_SIZE;
+        if (messageAdapter.getCount() <= MAX_LOADED_PAGES * pageSize)
+            return;
+
+        if (firstVisibleItem < 2 * pageSize)
+            return;
+
+        messageAdapter.removeOldestMessages(pageSize);
+        shiftRows(-pageSize);
+
+        //Let the pager know it will have to load the evicted messages again
+        final long oldestPosition = messageAdapter.getOldestPosition();
+        reachedStart = false;
+        pipeline.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (messagePager != null)
+                    messagePager.onOlderMessagesEvicted(oldestPosition);
+            }
+        });
+    }
+
+    //Notifies the list that rows were added (or removed, if count is negative) above the screen,
+    // and moves the selection by the same amount so the visible messages don't jump
+    private void shiftRows(int count) {
+        int first = conversationView.getFirstVisiblePosition();
+        View top = conversationView.getChildAt(0);
+        int offset = (top == null) ? 0 : top.getTop();
+
+        messageAdapter.notifyDataSetChanged();
+        conversationView.setSelectionFromTop(Math.max(0, first + count), offset);
+    }
+
+    //Check the conversation's metadata for a top bar color. The metadata store only parses it
+    // again after it has changed
+    private void getTopBarMetaData() {
+        if (activeConversation != null) {
+
+            Integer color = metadataStore.getBackgroundColor(activeConversation);
+            if (color != null)
+                setTopBarColor(color);
         }
     }
 
-    //Takes RGB values and sets the top bar color
-    private void setTopBarColor(float red, float green, float blue) {
+    //Sets the top bar color
+    private void setTopBarColor(int color) {
         if (topBar != null) {
-            topBar.setBackgroundColor(Color.argb(255, (int) (255.0f * red), (int) (255.0f *
-                    green), (int) (255.0f * blue)));
+            topBar.setBackgroundColor(color);
         }
     }
 
@@ -291,14 +963,43 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
         }
     }
 
+    //================================================================================
+    // View.OnLongClickListener methods
+    //================================================================================
+
+    public boolean onLongClick(View v) {
+        //Long pressing the Layer logo bar jumps to the first unread message
+        if (v == topBar) {
+            jumpToFirstUnread();
+            return true;
+        }
+
+        return false;
+    }
+
     //================================================================================
     // LayerChangeEventListener methods
     //================================================================================
 
     public void onEventMainThread(LayerChangeEvent event) {
 
+        //Change events tend to arrive in bursts (during a sync, for example), so queue the changes
+        // up and handle them all at once in onChangesCoalesced()
+        changeCoalescer.add(event.getChanges());
+    }
+
+    //================================================================================
+    // ChangeCoalescer.Listener methods
+    //================================================================================
+
+    public void onChangesCoalesced(List<LayerChange> changes) {
+
+        Log.v(TAG, "Handling " + changes.size() + " changes, " + changeCoalescer
+                .getChangesCoalesced() + " coalesced so far");
+
+        boolean metadataChanged = false;
+
         //You can choose to handle changes to conversations or messages however you'd like:
-        List<LayerChange> changes = event.getChanges();
         for (int i = 0; i < changes.size(); i++) {
             LayerChange change = changes.get(i);
             if (change.getObjectType() == LayerObject.Type.CONVERSATION) {
@@ -308,15 +1009,18 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
                         change.getAttributeName() + " was changed from " + change.getOldValue() +
                         " to " + change.getNewValue());
 
-                switch (change.getChangeType()) {
-                    case INSERT:
-                        break;
+                //Keep the conversation list up to date
+                conversationIndex.onChange(change);
+                if (change.getChangeType() == LayerChange.Type.DELETE)
+                    unreadTracker.remove(conversation.getId());
 
-                    case UPDATE:
-                        break;
+                //Only parse the metadata again once it has actually changed
+                if (change.getChangeType() != LayerChange.Type.UPDATE || ConversationMetadataStore
+                        .isMetadataChange(change.getAttributeName())) {
+                    metadataStore.invalidate(conversation.getId());
 
-                    case DELETE:
-                        break;
+                    if (conversation == activeConversation)
+                        metadataChanged = true;
                 }
 
             } else if (change.getObjectType() == LayerObject.Type.MESSAGE) {
@@ -326,28 +1030,117 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
                         .getAttributeName() + " was changed from " + change.getOldValue() + " to " +
                         "" + change.getNewValue());
 
+                //Keep the unread counts up to date, one message at a time
+                Uri conversationId = message.getConversation().getId();
                 switch (change.getChangeType()) {
                     case INSERT:
+                        if (isUnread(message))
+                            unreadTracker.onUnreadMessage(conversationId, message.getPosition());
                         break;
 
                     case UPDATE:
+                        if (RecipientStatusCache.isStatusChange(change.getAttributeName()) &&
+                                !isUnread(message))
+                            unreadTracker.onMessageGone(conversationId, message.getPosition());
                         break;
 
                     case DELETE:
+                        unreadTracker.onMessageGone(conversationId, message.getPosition());
                         break;
                 }
             }
         }
 
-        //If we don't have an active conversation, grab the oldest one
-        if (activeConversation == null)
-            activeConversation = getConversation();
+        //If we don't have an active conversation, grab the newest one. Since nothing has been
+        // drawn for it yet, the whole conversation needs to be drawn
+        if (activeConversation == null) {
+            drawConversation();
 
-        //If anything in the conversation changes, re-draw it in the GUI
-        drawConversation();
+        } else if (!applyMessageChanges(changes)) {
+
+            //The changes couldn't be applied to the existing views, so re-draw everything
+            drawConversation();
+        }
 
         //Check the meta-data for color changes
-        getTopBarMetaData();
+        if (metadataChanged)
+            getTopBarMetaData();
+    }
+
+    //================================================================================
+    // OutboundMessageQueue.Sender methods
+    //================================================================================
+
+    public boolean send(OutboundMessageQueue.PendingMessage pending) {
+
+        Conversation conversation;
+        if (pending.conversationId != null) {
+
+            if (activeConversation != null && activeConversation.getId().equals(pending
+                    .conversationId))
+                conversation = activeConversation;
+            else
+                conversation = conversationIndex.get(pending.conversationId);
+
+            //The index may not have caught up with the conversation yet (it only hears about new
+            // conversations while the screen is started), so ask the SDK before giving up on it
+            if (conversation == null) {
+                List<Conversation> results = queryConversation(pending.conversationId);
+                if (results == null)
+                    return false;
+
+                if (results.isEmpty() || results.get(0).isDeleted()) {
+                    Log.w(TAG, "Conversation " + pending.conversationId + " no longer exists, " +
+                            "dropping message " + pending.localId);
+                    return true;
+                }
+
+                conversation = results.get(0);
+            }
+
+        } else {
+
+            //Check to see if there is a conversation between the pre-defined participants. If
+            // there isn't, create a new conversation with those participants
+            conversation = findDefaultConversation();
+            if (conversation == null)
+                conversation = layerClient.newConversation(MainActivity.getAllParticipants());
+        }
+
+        Message message;
+        try {
+            message = sendMessage(conversation, pending.text);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not send message " + pending.localId, e);
+            return false;
+        }
+
+        //Keep showing the optimistic row until the real message is ready to take its place
+        sentMessages.put(message.getId(), pending.localId);
+
+        //Messages queued after this one look the conversation up by id, possibly before its INSERT
+        // has arrived
+        conversationIndex.add(conversation);
+
+        if (activeConversation == null)
+            activeConversation = conversation;
+
+        return true;
+    }
+
+    public void onSent(OutboundMessageQueue.PendingMessage pending) {
+
+        //Nothing to do yet. The optimistic row stays until the message's INSERT has been formatted,
+        // and is swapped for the real row in applyMessageChanges()
+    }
+
+    //================================================================================
+    // UnreadTracker.Listener methods
+    //================================================================================
+
+    public void onUnreadCountChanged(Uri conversationId, int unreadCount) {
+        Log.v(TAG, "Conversation " + conversationId + " has " + unreadCount + " unread messages, "
+                + unreadTracker.getTotalUnreadCount() + " in total");
     }
 
     //================================================================================
@@ -363,9 +1156,12 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
     }
 
     public void afterTextChanged(Editable s) {
-        //After the user has changed some text, we notify other participants that they are typing
-        if (activeConversation != null)
-            activeConversation.send(TypingIndicator.STARTED);
+        //After the user has changed some text, we notify other participants that they are typing.
+        // If they cleared the input, they are done typing
+        if (s.length() == 0)
+            typingPublisher.finish();
+        else
+            typingPublisher.onTyping(activeConversation);
     }
 
     //================================================================================
@@ -384,42 +1180,83 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
             case STARTED:
                 // This user started typing, so add them to the typing list if they are not
                 // already on it.
-                if (!typingUsers.contains(userID))
-                    typingUsers.add(userID);
+                typingUsers.onStarted(userID);
                 break;
 
             case FINISHED:
                 // This user isn't typing anymore, so remove them from the list.
-                typingUsers.remove(userID);
+                typingUsers.onFinished(userID);
                 break;
         }
+    }
 
-        //Format the text to display in the conversation view
-        if (typingUsers.size() == 0) {
+    //================================================================================
+    // TypingPresenceTracker.Listener methods
+    //================================================================================
+
+    public void onTypingLabelChanged(String label) {
+        typingIndicator.setText(label);
+    }
+
+    //================================================================================
+    // AbsListView.OnScrollListener methods
+    //================================================================================
 
-            //No one is typing, so clear the text
-            typingIndicator.setText("");
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
 
-        } else if (typingUsers.size() == 1) {
+        //Send the read receipts for everything the user scrolled past once they stop
+        if (scrollState == SCROLL_STATE_IDLE)
+            readReceipts.flush();
+    }
 
-            //Name the one user that is typing (and make sure the text is grammatically correct)
-            typingIndicator.setText(typingUsers.get(0) + " is typing");
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int
+            totalItemCount) {
 
-        } else if (typingUsers.size() > 1) {
+        //Nothing is displayed yet
+        if (activeConversation == null || totalItemCount == 0)
+            return;
 
-            //Name all the users that are typing (and make sure the text is grammatically correct)
-            String users = "";
-            for (int i = 0; i < typingUsers.size(); i++) {
-                users += typingUsers.get(i);
-                if (i < typingUsers.size() - 1)
-                    users += ", ";
+        //The messages on screen have been seen, so they can be marked as read
+        int lastVisibleItem = Math.min(firstVisibleItem + visibleItemCount, messageAdapter
+                .getCount());
+        for (int i = firstVisibleItem; i < lastVisibleItem; i++)
+            readReceipts.onVisible(messageAdapter.getItem(i));
+
+        //Everything up to the newest message on screen has been read
+        if (activeConversation == drawnConversation) {
+            for (int i = lastVisibleItem - 1; i >= firstVisibleItem; i--) {
+                MessageItem item = messageAdapter.getItem(i);
+                if (!item.isPendingSend()) {
+                    unreadTracker.advanceCursor(activeConversation.getId(), item.getPosition());
+                    break;
+                }
             }
+        }
 
-            typingIndicator.setText(users + " are typing");
+        //When the user gets close to the top, load the next older page. Otherwise see if there
+        // are pages we can let go of
+        //After jumping back to an old message, load the next newer page when the user gets close
+        // to the bottom
+        if (!reachedEnd && !loadingNewer && lastVisibleItem > totalItemCount - PREFETCH_ROWS)
+            loadNewerMessages();
+
+        if (firstVisibleItem < PREFETCH_ROWS) {
+            if (!loadingOlder && !reachedStart)
+                loadOlderMessages();
+            else if (reachedStart && !backfillRequested)
+                requestOlderHistory();
+
+        } else {
+            evictOlderMessages(firstVisibleItem);
         }
     }
 
-    //Called before syncing with the Layer servers
+    //================================================================================
+    // LayerSyncListener methods
+    //================================================================================
+
+    //Called before syncing with the Layer servers. Sync telemetry is recorded by SyncTelemetry,
+    // which is registered for as long as the LayerClient exists
     public void onBeforeSync(LayerClient layerClient) {
         Log.v(TAG, "Sync starting");
     }
@@ -433,6 +1270,9 @@ public class ConversationViewController implements View.OnClickListener, LayerCh
     //Called after syncing with the Layer servers
     public void onAfterSync(LayerClient layerClient) {
         Log.v(TAG, "Sync complete");
+
+        //The sync may have brought in older history, so it can be asked for again
+        backfillRequested = false;
     }
 
     //Captures any errors with syncing
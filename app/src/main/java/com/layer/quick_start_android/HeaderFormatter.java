@@ -0,0 +1,89 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.layer.sdk.messaging.Message;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Builds the header shown above each message ("User @ Timestamp"). Headers are memoized per
+ * message id, so a message is only formatted once no matter how many times its row is bound.
+ *
+ * A single HeaderFormatter can be shared between threads: the cache is synchronized, and each
+ * thread gets its own date format and string builder since neither of those are thread-safe.
+ */
+public class HeaderFormatter {
+
+    //How many headers to remember, roughly a few pages of messages
+    private static final int MAX_CACHED_HEADERS = 500;
+
+    private static final ThreadLocal<SimpleDateFormat> TIME_FORMAT = new
+            ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("HH:mm:ss");
+        }
+    };
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(64);
+        }
+    };
+
+    private LruCache<Uri, String> headers;
+
+    public HeaderFormatter() {
+        headers = new LruCache<>(MAX_CACHED_HEADERS);
+    }
+
+    //The sender text is formatted like so:
+    //  User @ Timestamp - Status
+    public String format(Message msg) {
+
+        if (msg == null)
+            return "";
+
+        String header = headers.get(msg.getId());
+        if (header != null)
+            return header;
+
+        //Use the time the server received the message, or the time it was sent if the server
+        // hasn't received it yet
+        Date timestamp = msg.getReceivedAt();
+        if (timestamp == null)
+            timestamp = msg.getSentAt();
+
+        header = format(msg.getSender() != null ? msg.getSender().getUserId() : null, timestamp);
+
+        //Only remember the header once the server has received the message, since the timestamp
+        // can still change before that
+        if (msg.getReceivedAt() != null)
+            headers.put(msg.getId(), header);
+
+        return header;
+    }
+
+    //Formats a header for a message that doesn't exist in the SDK yet, like one that is still
+    // waiting to be sent. These aren't cached
+    public String format(String userId, Date timestamp) {
+        StringBuilder builder = BUILDER.get();
+        builder.setLength(0);
+
+        //The User ID
+        if (userId != null)
+            builder.append(userId);
+
+        //Add the timestamp
+        if (timestamp != null)
+            builder.append(" @ ").append(TIME_FORMAT.get().format(timestamp));
+
+        //Add some formatting before the status icon
+        builder.append("   ");
+        return builder.toString();
+    }
+}
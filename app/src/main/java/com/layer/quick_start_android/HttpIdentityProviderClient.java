@@ -0,0 +1,279 @@
+package com.layer.quick_start_android;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Requests Identity Tokens from an Authentication Service over HTTP.
+ *
+ * Requests run one at a time on a single background thread, so a burst of challenges can't pile up
+ * threads. Challenges for a nonce that is already being requested share that request. Responses
+ * are always read to the end and the connection is never explicitly closed, which lets
+ * HttpURLConnection keep the socket alive and reuse it for the next challenge. Failed requests are
+ * retried with exponential backoff and full jitter, unless the service rejected the request
+ * outright.
+ *
+ * The base URL can be pointed at a local stand-in server for testing.
+ */
+public class HttpIdentityProviderClient implements IdentityProviderClient {
+
+    private static final String TAG = HttpIdentityProviderClient.class.getSimpleName();
+
+    //Note: This Layer Authentication Service is for TESTING PURPOSES ONLY
+    //When going into production, you will need to create your own web service
+    //Check out https://developer.layer.com/docs/guides#authentication for guidance
+    public static final String DEFAULT_BASE_URL = "https://layer-identity-provider.herokuapp.com";
+
+    private static final String TOKEN_PATH = "/identity_tokens";
+
+    //Timeouts and retry policy for the client
+    public static class Options {
+        private String baseUrl = DEFAULT_BASE_URL;
+        private int connectTimeoutMs = 10000;
+        private int readTimeoutMs = 15000;
+        private int maxAttempts = 4;
+        private long initialBackoffMs = 500;
+        private long maxBackoffMs = 8000;
+
+        public Options baseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        public Options connectTimeout(int millis) {
+            connectTimeoutMs = millis;
+            return this;
+        }
+
+        public Options readTimeout(int millis) {
+            readTimeoutMs = millis;
+            return this;
+        }
+
+        //The total number of tries, including the first one
+        public Options maxAttempts(int attempts) {
+            maxAttempts = Math.max(1, attempts);
+            return this;
+        }
+
+        public Options backoff(long initialMillis, long maxMillis) {
+            initialBackoffMs = initialMillis;
+            maxBackoffMs = maxMillis;
+            return this;
+        }
+    }
+
+    //Thrown when the service rejected the request, which retrying won't fix
+    private static class RejectedException extends IOException {
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private final Options options;
+    private final ExecutorService worker;
+    private final Random random;
+
+    //The callbacks waiting on each nonce that is being requested
+    private final HashMap<String, List<Callback>> inFlight;
+
+    public HttpIdentityProviderClient() {
+        this(new Options());
+    }
+
+    public HttpIdentityProviderClient(Options options) {
+        this.options = options;
+        worker = Executors.newSingleThreadExecutor();
+        random = new Random();
+        inFlight = new HashMap<>();
+    }
+
+    public void requestIdentityToken(final String appId, final String userId, final String nonce,
+                                     Callback callback) {
+
+        //If this nonce is already being requested, wait for that request instead of starting
+        // another one
+        synchronized (inFlight) {
+            List<Callback> waiting = inFlight.get(nonce);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(nonce, waiting);
+        }
+
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                String token = null;
+                Exception error = null;
+                try {
+                    token = requestWithRetries(appId, userId, nonce);
+                } catch (Exception e) {
+                    error = e;
+                }
+
+                List<Callback> waiting;
+                synchronized (inFlight) {
+                    waiting = inFlight.remove(nonce);
+                }
+
+                for (int i = 0; i < waiting.size(); i++) {
+                    if (token != null)
+                        waiting.get(i).onIdentityToken(nonce, token);
+                    else
+                        waiting.get(i).onError(nonce, error);
+                }
+            }
+        });
+    }
+
+    //Connects to the service ahead of the first challenge, so the DNS lookup and TLS handshake are
+    // out of the way and the kept-alive connection can be reused for the token request
+    public void warmUp() {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) new URL(options.baseUrl)
+                            .openConnection();
+                    connection.setConnectTimeout(options.connectTimeoutMs);
+                    connection.setReadTimeout(options.readTimeoutMs);
+                    connection.setRequestMethod("HEAD");
+
+                    int status = connection.getResponseCode();
+                    readFully(status < 400 ? connection.getInputStream() : connection
+                            .getErrorStream());
+                } catch (IOException e) {
+                    //Nothing is lost, the token request will just have to connect itself
+                    Log.v(TAG, "Could not warm up the identity provider connection", e);
+                }
+            }
+        });
+    }
+
+    //Tries the request until it succeeds, is rejected, or runs out of attempts
+    private String requestWithRetries(String appId, String userId, String nonce) throws
+            IOException, InterruptedException {
+
+        IOException lastError = null;
+        for (int attempt = 0; attempt < options.maxAttempts; attempt++) {
+            if (attempt > 0) {
+                long delay = getBackoff(attempt);
+                Log.v(TAG, "Retrying identity token request in " + delay + "ms");
+                Thread.sleep(delay);
+            }
+
+            try {
+                return request(appId, userId, nonce);
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                Log.w(TAG, "Identity token request failed (attempt " + (attempt + 1) + " of " +
+                        options.maxAttempts + ")", e);
+                lastError = e;
+            }
+        }
+
+        throw lastError;
+    }
+
+    //A random delay between zero and the exponential backoff for this attempt, so clients that
+    // failed together don't all retry together
+    private long getBackoff(int attempt) {
+        long ceiling = Math.min(options.maxBackoffMs, options.initialBackoffMs << Math.min(attempt
+                - 1, 20));
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    private String request(String appId, String userId, String nonce) throws IOException {
+        byte[] body;
+        try {
+            body = new JSONObject()
+                    .put("app_id", appId)
+                    .put("user_id", userId)
+                    .put("nonce", nonce)
+                    .toString().getBytes("UTF-8");
+        } catch (JSONException e) {
+            throw new IOException("Could not build the request: " + e.getMessage());
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(options.baseUrl + TOKEN_PATH)
+                .openConnection();
+        connection.setConnectTimeout(options.connectTimeoutMs);
+        connection.setReadTimeout(options.readTimeoutMs);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+
+        int status = connection.getResponseCode();
+        String response = readFully(status < 400 ? connection.getInputStream() : connection
+                .getErrorStream());
+
+        //Server errors and throttling are worth retrying, anything else the service doesn't like
+        // won't get better
+        if (status >= 500 || status == 429)
+            throw new IOException("Identity provider returned " + status);
+        if (status >= 400)
+            throw new RejectedException("Identity provider rejected the request (" + status +
+                    "): " + response);
+
+        String token;
+        try {
+            token = new JSONObject(response).optString("identity_token");
+        } catch (JSONException e) {
+            throw new IOException("Could not parse the identity provider's response: " + e
+                    .getMessage());
+        }
+
+        if (token == null || token.length() == 0)
+            throw new RejectedException("Identity provider returned no identity token");
+
+        return token;
+    }
+
+    //Reads the whole response, which is what allows the connection to be reused
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null)
+            return "";
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                bytes.write(buffer, 0, read);
+
+            return bytes.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
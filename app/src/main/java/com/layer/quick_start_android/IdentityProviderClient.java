@@ -0,0 +1,22 @@
+package com.layer.quick_start_android;
+
+/**
+ * Exchanges an authentication challenge's nonce for an Identity Token from your Authentication
+ * Service. MyAuthenticationListener uses HttpIdentityProviderClient by default, but any service (or
+ * a fake, for testing) can be plugged in instead.
+ */
+public interface IdentityProviderClient {
+
+    //Receives the result of a token request. Called on a background thread
+    interface Callback {
+        void onIdentityToken(String nonce, String identityToken);
+        void onError(String nonce, Exception e);
+    }
+
+    //Requests an Identity Token for the user and nonce. Must not block the calling thread
+    void requestIdentityToken(String appId, String userId, String nonce, Callback callback);
+
+    //Gets ready for a request that is about to happen, for example by opening the connection.
+    // Must not block the calling thread
+    void warmUp();
+}
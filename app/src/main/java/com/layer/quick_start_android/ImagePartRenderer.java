@@ -0,0 +1,42 @@
+package com.layer.quick_start_android;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+
+import com.layer.sdk.messaging.MessagePart;
+
+/**
+ * Displays image message parts as thumbnails. The images are decoded and cached by a
+ * ThumbnailLoader, so binding a row never decodes an image on the main thread.
+ */
+public class ImagePartRenderer implements PartRenderer {
+
+    //The largest a thumbnail is displayed, in dp
+    private static final int THUMBNAIL_SIZE_DP = 200;
+
+    private ThumbnailLoader loader;
+
+    public ImagePartRenderer(ThumbnailLoader thumbnailLoader) {
+        loader = thumbnailLoader;
+    }
+
+    public View createView(Context context) {
+        ImageView image = new ImageView(context);
+        image.setAdjustViewBounds(true);
+        image.setScaleType(ImageView.ScaleType.FIT_START);
+        image.setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams
+                .WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT));
+        return image;
+    }
+
+    public void bind(View view, MessagePart part) {
+        int size = (int) (THUMBNAIL_SIZE_DP * view.getResources().getDisplayMetrics().density);
+        loader.load(part, (ImageView) view, size);
+    }
+
+    public void unbind(View view) {
+        loader.cancel((ImageView) view);
+    }
+}
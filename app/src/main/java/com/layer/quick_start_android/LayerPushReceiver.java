@@ -1,15 +1,17 @@
 package com.layer.quick_start_android;
 
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
-import android.support.v4.app.NotificationCompat;
 
 public class LayerPushReceiver extends BroadcastReceiver {
+
+    //Sent by a conversation's notification when the user swipes it away
+    public static final String ACTION_NOTIFICATION_DISMISSED = "com.layer" +
+            ".quick_start_android.NOTIFICATION_DISMISSED";
+
     @Override
     public void onReceive(Context context, Intent intent) {
 
@@ -17,6 +19,15 @@ public class LayerPushReceiver extends BroadcastReceiver {
         if(intent.getAction() == Intent.ACTION_BOOT_COMPLETED)
             return;
 
+        NotificationAggregator aggregator = NotificationAggregator.getInstance(context);
+
+        //The user is done with this conversation's notification
+        if(ACTION_NOTIFICATION_DISMISSED.equals(intent.getAction())) {
+            Uri conversationId = intent.getParcelableExtra(MainActivity.EXTRA_CONVERSATION_ID);
+            aggregator.clear(conversationId);
+            return;
+        }
+
         // Get notification content
         Bundle extras = intent.getExtras();
         String message = "";
@@ -24,28 +35,12 @@ public class LayerPushReceiver extends BroadcastReceiver {
         if (extras.containsKey("layer-push-message")) {
             message = extras.getString("layer-push-message");
         }
-        if (extras.containsKey("layer-conversation-id")) {
-            conversationId = extras.getParcelable("layer-conversation-id");
+        if (extras.containsKey(MainActivity.EXTRA_CONVERSATION_ID)) {
+            conversationId = extras.getParcelable(MainActivity.EXTRA_CONVERSATION_ID);
         }
 
-        // Build the notification
-        NotificationCompat.Builder mBuilder = new NotificationCompat.Builder(context)
-                .setSmallIcon(R.drawable.ic_launcher)
-                .setContentTitle(context.getResources().getString(R.string.app_name))
-                .setContentText(message)
-                .setAutoCancel(true)
-                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
-                .setDefaults(NotificationCompat.DEFAULT_SOUND | NotificationCompat.DEFAULT_VIBRATE);
-
-        // Set the action to take when a user taps the notification
-        Intent resultIntent = new Intent(context, MainActivity.class);
-        resultIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        resultIntent.putExtra("layer-conversation-id", conversationId);
-        PendingIntent resultPendingIntent = PendingIntent.getActivity(context, 0, resultIntent, PendingIntent.FLAG_CANCEL_CURRENT);
-        mBuilder.setContentIntent(resultPendingIntent);
-
-        // Show the notification
-        NotificationManager mNotifyMgr = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        mNotifyMgr.notify(1, mBuilder.build());
+        // Building and posting the notification happens in the background, merged with any other
+        // pushes that arrive at the same time. See NotificationAggregator.java for the details
+        aggregator.add(conversationId, message, goAsync());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,106 @@
+package com.layer.quick_start_android;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.listeners.LayerSyncListener;
+import com.layer.sdk.listeners.LayerTypingIndicatorListener;
+
+import java.util.ArrayList;
+
+/**
+ * Registers a set of listeners with the LayerClient while the screen is visible, and unregisters
+ * them when it isn't.
+ *
+ * The LayerClient outlives the Activity, so anything left registered with it keeps receiving
+ * callbacks (and keeps the Activity's views in memory) after the Activity is gone. Call start() and
+ * stop() from the matching Activity lifecycle methods, and nothing stays registered once the
+ * Activity has stopped.
+ *
+ * All methods must be called from the main thread.
+ */
+public class LayerSubscriptions {
+
+    //Registers and unregisters a single listener
+    public interface Subscription {
+        void subscribe(LayerClient client);
+        void unsubscribe(LayerClient client);
+    }
+
+    private LayerClient layerClient;
+    private ArrayList<Subscription> subscriptions;
+    private boolean started;
+
+    public LayerSubscriptions(LayerClient client) {
+        layerClient = client;
+        subscriptions = new ArrayList<>();
+    }
+
+    //Adds a subscription, which is registered straight away if the subscriptions are started
+    public LayerSubscriptions add(Subscription subscription) {
+        subscriptions.add(subscription);
+        if (started)
+            subscription.subscribe(layerClient);
+
+        return this;
+    }
+
+    //Registers every listener. Does nothing if they are already registered
+    public void start() {
+        if (started)
+            return;
+
+        started = true;
+        for (int i = 0; i < subscriptions.size(); i++)
+            subscriptions.get(i).subscribe(layerClient);
+    }
+
+    //Unregisters every listener. Does nothing if they aren't registered
+    public void stop() {
+        if (!started)
+            return;
+
+        started = false;
+        for (int i = subscriptions.size() - 1; i >= 0; i--)
+            subscriptions.get(i).unsubscribe(layerClient);
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public static Subscription events(final LayerChangeEventListener listener) {
+        return new Subscription() {
+            public void subscribe(LayerClient client) {
+                client.registerEventListener(listener);
+            }
+
+            public void unsubscribe(LayerClient client) {
+                client.unregisterEventListener(listener);
+            }
+        };
+    }
+
+    public static Subscription sync(final LayerSyncListener listener) {
+        return new Subscription() {
+            public void subscribe(LayerClient client) {
+                client.registerSyncListener(listener);
+            }
+
+            public void unsubscribe(LayerClient client) {
+                client.unregisterSyncListener(listener);
+            }
+        };
+    }
+
+    public static Subscription typingIndicators(final LayerTypingIndicatorListener listener) {
+        return new Subscription() {
+            public void subscribe(LayerClient client) {
+                client.registerTypingIndicator(listener);
+            }
+
+            public void unsubscribe(LayerClient client) {
+                client.unregisterTypingIndicator(listener);
+            }
+        };
+    }
+}
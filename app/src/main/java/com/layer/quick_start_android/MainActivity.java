@@ -23,6 +23,8 @@
 package com.layer.quick_start_android;
 
 import android.app.AlertDialog;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
@@ -47,31 +49,80 @@ public class MainActivity extends AppCompatActivity {
     // background).
     public static final String GCM_PROJECT_NUMBER = "00000";
 
+    //Push notifications open the app with the id of the conversation they are about in this extra
+    public static final String EXTRA_CONVERSATION_ID = "layer-conversation-id";
 
-    //Global variables used to manage the Layer Client and the conversations in this app
-    private LayerClient layerClient;
+    //How much history is synced after a user authenticates. Leave this null to let SyncPolicy
+    // pick one based on the device's memory and the size of the user's history, or set it to
+    // force a policy
+    public static final LayerClient.Options.HistoricSyncPolicy HISTORIC_SYNC_POLICY = null;
+
+
+    //Global variables used to manage the Layer Client and the conversations in this app. The
+    // LayerClient (and the listeners registered with it) outlive the Activity, so they are kept
+    // when it is re-created, for example when the screen is rotated
+    private static LayerClient layerClient;
     private ConversationViewController conversationView;
 
-    //Layer connection and authentication callback listeners
-    private MyConnectionListener connectionListener;
-    private MyAuthenticationListener authenticationListener;
+    //Layer connection and authentication callback listeners. They only hold the Activity weakly
+    private static MyConnectionListener connectionListener;
+    private static MyAuthenticationListener authenticationListener;
+
+    //Connects and authenticates in the background while cached data is shown
+    private static StartupOrchestrator startupOrchestrator;
+
+    //Picks the historic sync policy, and records how every sync went during this run
+    private static SyncPolicy syncPolicy;
+    private static SyncTelemetry syncTelemetry = new SyncTelemetry();
+
+    //True between onStart() and onStop()
+    private boolean started;
 
     //onCreate is called on App Start
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTimeline.mark(StartupTimeline.ACTIVITY_CREATED);
 
         //If we haven't created a LayerClient, show the loading splash screen
         if(layerClient == null)
             setContentView(R.layout.activity_loading);
 
 
-        //Create the callback listeners
+        //Create the callback listeners, or point the existing ones at this Activity
 
         if(connectionListener == null)
             connectionListener = new MyConnectionListener(this);
+        else
+            connectionListener.setActivity(this);
 
         if(authenticationListener == null)
             authenticationListener = new MyAuthenticationListener(this);
+        else
+            authenticationListener.setActivity(this);
+
+        //If the app was opened from a notification, the user has seen it
+        if(savedInstanceState == null)
+            clearNotification(getIntent());
+    }
+
+    //onStart is called when the app becomes visible
+    protected void onStart(){
+        super.onStart();
+        started = true;
+
+        //Listen for changes while the conversation is visible
+        if(conversationView != null)
+            conversationView.onStart();
+    }
+
+    //onNewIntent is called when a notification is tapped while the app is already running
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        clearNotification(intent);
+
+        if(conversationView != null)
+            showRequestedConversation();
     }
 
     //onResume is called on App Start and when the app is brought to the foreground
@@ -80,19 +131,30 @@ public class MainActivity extends AppCompatActivity {
 
         //Connect to Layer and Authenticate a user
         loadLayerClient();
+    }
 
-        //Every time the app is brought to the foreground, register the typing indicator
-        if(layerClient != null && conversationView != null)
-            layerClient.registerTypingIndicator(conversationView);
+    //onStop is called when the app is no longer visible
+    protected void onStop(){
+        super.onStop();
+        started = false;
+
+        //Stop listening for changes (and typing indicators) while nothing is displayed
+        if(conversationView != null)
+            conversationView.onStop();
     }
 
-    //onPause is called when the app is sent to the background
-    protected void onPause(){
-        super.onPause();
+    //onDestroy is called when the Activity goes away, including when it is re-created
+    protected void onDestroy(){
+        super.onDestroy();
+
+        //Let go of the views, and make sure the listeners don't call back into this Activity
+        if(conversationView != null) {
+            conversationView.destroy();
+            conversationView = null;
+        }
 
-        //When the app is moved to the background, unregister the typing indicator
-        if(layerClient != null && conversationView != null)
-            layerClient.unregisterTypingIndicator(conversationView);
+        connectionListener.clearActivity(this);
+        authenticationListener.clearActivity(this);
     }
 
     //Checks to see if the SDK is connected to Layer and whether a user is authenticated
@@ -114,42 +176,33 @@ public class MainActivity extends AppCompatActivity {
                 options.googleCloudMessagingSenderId(GCM_PROJECT_NUMBER);
 
                 //By default, only unread messages are synced after a user is authenticated, but you
-                // can change that behavior to all messages or just the last message in a conversation
-                options.historicSyncPolicy(LayerClient.Options.HistoricSyncPolicy.ALL_MESSAGES);
+                // can change that behavior to all messages or just the last message in a conversation.
+                // Syncing everything is too expensive for users with a large history, so the policy
+                // is picked per device (see SyncPolicy.java)
+                syncPolicy = new SyncPolicy(this);
+                options.historicSyncPolicy(syncPolicy.choose(HISTORIC_SYNC_POLICY));
 
 
-                layerClient = LayerClient.newInstance(this, LAYER_APP_ID, options);
+                //Use the application context, since the client outlives this Activity
+                layerClient = LayerClient.newInstance(getApplicationContext(), LAYER_APP_ID,
+                        options);
 
                 //Register the connection and authentication listeners
                 layerClient.registerConnectionListener(connectionListener);
                 layerClient.registerAuthenticationListener(authenticationListener);
-            }
 
-            //Check the current state of the SDK. The client must be CONNECTED and the user must
-            // be AUTHENTICATED in order to send and receive messages. Note: it is possible to be
-            // authenticated, but not connected, and vice versa, so it is a best practice to check
-            // both states when your app launches or comes to the foreground.
-            if (!layerClient.isConnected()) {
+                //Record every sync, including the first one after authenticating and the ones
+                // that happen while no Activity is showing
+                layerClient.registerSyncListener(syncTelemetry);
+                layerClient.registerSyncListener(syncPolicy);
 
-                //If Layer is not connected, make sure we connect in order to send/receive messages.
-                // MyConnectionListener.java handles the callbacks associated with Connection, and
-                // will start the Authentication process once the connection is established
-                layerClient.connect();
-
-            } else if (!layerClient.isAuthenticated()) {
-
-                //If the client is already connected, try to authenticate a user on this device.
-                // MyAuthenticationListener.java handles the callbacks associated with Authentication
-                // and will start the Conversation View once the user is authenticated
-                layerClient.authenticate();
-
-            } else {
-
-                // If the client is to Layer and the user is authenticated, start the Conversation
-                // View. This will be called when the app moves from the background to the foreground,
-                // for example.
-                onUserAuthenticated();
+                startupOrchestrator = new StartupOrchestrator(layerClient, authenticationListener);
+                StartupTimeline.mark(StartupTimeline.CLIENT_CREATED);
             }
+
+            //Show what is already on the device, and connect and authenticate in the
+            // background. See StartupOrchestrator.java for the details
+            startupOrchestrator.start(this);
         }
     }
 
@@ -185,6 +238,10 @@ public class MainActivity extends AppCompatActivity {
         return "Device";
     }
 
+    public static SyncTelemetry getSyncTelemetry(){
+        return syncTelemetry;
+    }
+
     //By default, create a conversationView between these 3 participants
     public static List<String> getAllParticipants(){
         return Arrays.asList("Device", "Simulator", "Dashboard");
@@ -197,9 +254,40 @@ public class MainActivity extends AppCompatActivity {
 
             conversationView = new ConversationViewController(this, layerClient);
 
-            if (layerClient != null) {
-                layerClient.registerTypingIndicator(conversationView);
+            //Start listening for changes straight away if the app is visible, otherwise that
+            // happens in onStart()
+            if (started) {
+                conversationView.onStart();
             }
+
+            showRequestedConversation();
         }
     }
+
+    //Called by MyConnectionListener whenever the connection to Layer is established or lost
+    public void onConnectionStateChanged(ConnectionMonitor.State state){
+        if(conversationView != null)
+            conversationView.onConnectionStateChanged(state);
+    }
+
+    //Removes the notification the app was opened from, along with the messages it listed
+    private void clearNotification(Intent intent){
+        if(intent == null)
+            return;
+
+        Uri conversationId = intent.getParcelableExtra(EXTRA_CONVERSATION_ID);
+        if(conversationId != null)
+            NotificationAggregator.getInstance(this).clear(conversationId);
+    }
+
+    //If the app was opened from a notification, switch to the conversation it was about
+    private void showRequestedConversation(){
+        Intent intent = getIntent();
+        if(intent == null)
+            return;
+
+        Uri conversationId = intent.getParcelableExtra(EXTRA_CONVERSATION_ID);
+        if(conversationId != null)
+            conversationView.showConversation(conversationId);
+    }
 }
@@ -0,0 +1,108 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+import java.util.List;
+
+/**
+ * Backs the conversation ListView with the formatted messages in the active conversation, ordered
+ * by their position. Only the rows that are on screen are materialized, and their MessageViews are
+ * recycled as the user scrolls.
+ *
+ * None of the add/update/remove methods notify the ListView, so that a batch of changes only
+ * causes a single layout pass. Call notifyDataSetChanged() once the batch has been applied.
+ */
+public class MessageAdapter extends BaseAdapter {
+
+    //The messages, in display order and indexed by id
+    private MessageIndex messages;
+
+    public MessageAdapter() {
+        messages = new MessageIndex();
+    }
+
+    //Empties the list of stored messages
+    public void clear() {
+        messages.clear();
+    }
+
+    //Adds a message, keeping the list ordered by message position. Returns true if the message
+    // ended up at the bottom of the conversation
+    public boolean addMessage(MessageItem msg) {
+
+        //If we have already added this message, skip it
+        int index = messages.add(msg);
+        return index >= 0 && index == messages.size() - 1;
+    }
+
+    //Adds a page of older messages (ordered from oldest to newest) to the top of the list. Returns
+    // the number of messages that were added
+    public int addOlderMessages(List<MessageItem> page) {
+        return messages.addOlder(page);
+    }
+
+    //Drops the oldest messages from the top of the list to free up memory
+    public void removeOldestMessages(int count) {
+        messages.removeOldest(count);
+    }
+
+    //Returns the position of the oldest message in the list, or Long.MAX_VALUE if it is empty
+    public long getOldestPosition() {
+        if (messages.size() == 0)
+            return Long.MAX_VALUE;
+
+        return messages.get(0).getPosition();
+    }
+
+    //Returns the row of the first message at or after the given position, or getCount() if every
+    // message is older
+    public int getIndexAtOrAfter(long position) {
+        return messages.indexAtOrAfter(position);
+    }
+
+    //Replaces the stored copy of a message. Returns false if the message has not been added
+    public boolean updateMessage(MessageItem msg) {
+        return messages.replace(msg);
+    }
+
+    //Removes a message from the list
+    public void removeMessage(Uri id) {
+        messages.remove(id);
+    }
+
+    //================================================================================
+    // BaseAdapter methods
+    //================================================================================
+
+    public int getCount() {
+        return messages.size();
+    }
+
+    public MessageItem getItem(int position) {
+        return messages.get(position);
+    }
+
+    //Message positions are unique within a conversation, so they make stable row ids
+    public long getItemId(int position) {
+        return messages.get(position).getPosition();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    //Binds the message to a recycled row if the ListView has one, otherwise creates a new row
+    public View getView(int position, View convertView, ViewGroup parent) {
+
+        MessageView msgView = MessageView.fromView(convertView);
+        if (msgView == null)
+            msgView = new MessageView(parent.getContext());
+
+        msgView.UpdateMessage(messages.get(position));
+        return msgView.getView();
+    }
+}
@@ -0,0 +1,152 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The messages displayed in the conversation list, ordered by position and indexed by message id.
+ *
+ * Looking a message up by id is a single HashMap lookup. Finding where it sits in the list is a
+ * binary search on its position, which stays correct as messages are inserted or removed without
+ * having to renumber anything.
+ *
+ * The index is not synchronized. It belongs to the MessageAdapter and must only be used from the
+ * main thread.
+ */
+public class MessageIndex {
+
+    //The messages, in the order they are displayed
+    private ArrayList<MessageItem> messages;
+
+    //The same messages, keyed by id
+    private HashMap<Uri, MessageItem> byId;
+
+    public MessageIndex() {
+        messages = new ArrayList<>();
+        byId = new HashMap<>();
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public MessageItem get(int index) {
+        return messages.get(index);
+    }
+
+    public boolean contains(Uri id) {
+        return byId.containsKey(id);
+    }
+
+    public MessageItem getById(Uri id) {
+        return byId.get(id);
+    }
+
+    public void clear() {
+        messages.clear();
+        byId.clear();
+    }
+
+    //Adds a message in position order. Returns the index it was added at, or -1 if a message with
+    // the same id is already in the index
+    public int add(MessageItem item) {
+        if (byId.containsKey(item.getId()))
+            return -1;
+
+        //New messages almost always belong at the bottom, so check that before searching
+        int index = messages.size();
+        if (index > 0 && messages.get(index - 1).getPosition() > item.getPosition())
+            index = insertionPoint(item.getPosition());
+
+        messages.add(index, item);
+        byId.put(item.getId(), item);
+        return index;
+    }
+
+    //Adds a page of messages (ordered from oldest to newest) that are all older than the ones in
+    // the index. Returns the number of messages that were added
+    public int addOlder(List<MessageItem> page) {
+        ArrayList<MessageItem> added = new ArrayList<>(page.size());
+        for (int i = 0; i < page.size(); i++) {
+            MessageItem item = page.get(i);
+            if (byId.containsKey(item.getId()))
+                continue;
+
+            added.add(item);
+            byId.put(item.getId(), item);
+        }
+
+        messages.addAll(0, added);
+        return added.size();
+    }
+
+    //Swaps in a new copy of a message that is already in the index. Returns false if the message
+    // isn't in the index
+    public boolean replace(MessageItem item) {
+        int index = indexOf(item.getId());
+        if (index < 0)
+            return false;
+
+        //The position of a message never changes, so the new copy goes in the same spot
+        messages.set(index, item);
+        byId.put(item.getId(), item);
+        return true;
+    }
+
+    //Removes a message. Returns false if the message isn't in the index
+    public boolean remove(Uri id) {
+        int index = indexOf(id);
+        if (index < 0)
+            return false;
+
+        messages.remove(index);
+        byId.remove(id);
+        return true;
+    }
+
+    //Removes the first "count" (oldest) messages
+    public void removeOldest(int count) {
+        count = Math.min(count, messages.size());
+        for (int i = 0; i < count; i++)
+            byId.remove(messages.get(i).getId());
+
+        messages.subList(0, count).clear();
+    }
+
+    //Returns where the message with this id sits in the list, or -1 if it isn't in the index
+    public int indexOf(Uri id) {
+        MessageItem item = byId.get(id);
+        if (item == null)
+            return -1;
+
+        int index = insertionPoint(item.getPosition()) - 1;
+        if (index >= 0 && messages.get(index).getId().equals(id))
+            return index;
+
+        return -1;
+    }
+
+    //Returns the index of the first message at or after the given position, or size() if every
+    // message is older
+    public int indexAtOrAfter(long position) {
+        return insertionPoint(position - 1);
+    }
+
+    //Returns the index of the first message whose position is greater than the given position
+    private int insertionPoint(long position) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (messages.get(mid).getPosition() <= position)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+}
@@ -0,0 +1,138 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.messaging.MessagePart;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An immutable snapshot of everything the conversation list needs in order to display a Message.
+ * Items are built by the MessagePipeline on its worker thread, so binding a row on the main thread
+ * never has to decode message parts or check recipient statuses.
+ */
+public class MessageItem {
+
+    //The message text view shows at most this many lines, so there is no point decoding more than
+    // roughly this many lines worth of text
+    public static final int MAX_PREVIEW_LINES = 20;
+    private static final int MAX_PREVIEW_CHARS = MAX_PREVIEW_LINES * 80;
+
+    //Messages that are waiting to be sent don't have a position yet, so they get one above any
+    // real message's, in the order they were queued
+    private static final long PENDING_POSITION_BASE = Long.MAX_VALUE - Integer.MAX_VALUE;
+
+    //Shared by every item, so headers are only ever formatted once per message
+    private static final HeaderFormatter HEADERS = new HeaderFormatter();
+
+    private final Uri id;
+    private final long position;
+
+    //The header ("User @ Timestamp") and the body of the message
+    private final String senderText;
+    private final String messageText;
+
+    //Drives the status icon next to the header
+    private final Message.RecipientStatus status;
+
+    //The parts that are displayed by a PartRenderer instead of as text
+    private final List<MessagePart> renderedParts;
+
+    //True if someone else sent the message and the local user hasn't read it yet
+    private final boolean needsReadReceipt;
+
+    private MessageItem(Uri id, long position, String senderText, String messageText, Message
+            .RecipientStatus status, List<MessagePart> renderedParts, boolean needsReadReceipt) {
+        this.id = id;
+        this.position = position;
+        this.senderText = senderText;
+        this.messageText = messageText;
+        this.status = status;
+        this.renderedParts = renderedParts;
+        this.needsReadReceipt = needsReadReceipt;
+    }
+
+    //Formats the message for display. This reads the message parts, so it should be called from
+    // the worker thread
+    public static MessageItem fromMessage(Message msg, RecipientStatusCache statuses, String
+            localUserId) {
+        List<MessagePart> parts = msg.getMessageParts();
+        String msgText = PartDecoder.decodeText(parts, MAX_PREVIEW_CHARS);
+
+        //NOTE: the sender of a message CANNOT mark their own message as read
+        boolean needsReadReceipt = !msg.getSender().getUserId().equalsIgnoreCase(localUserId) &&
+                msg.getRecipientStatus(localUserId) != Message.RecipientStatus.READ;
+
+        return new MessageItem(msg.getId(), msg.getPosition(), HEADERS.format(msg), msgText,
+                statuses.getStatus(msg), getRenderedParts(parts), needsReadReceipt);
+    }
+
+    //Builds an optimistic row for a message that is still in the outbound queue. It is shown at the
+    // bottom of the conversation with a PENDING status, until the real message replaces it
+    public static MessageItem fromPending(OutboundMessageQueue.PendingMessage pending, String
+            userId) {
+        String msgText = pending.text;
+        if (msgText.length() > MAX_PREVIEW_CHARS)
+            msgText = msgText.substring(0, MAX_PREVIEW_CHARS) + '\u2026';
+
+        return new MessageItem(pending.localId, PENDING_POSITION_BASE + (pending.sequence %
+                Integer.MAX_VALUE), HEADERS.format(userId, new Date(pending.queuedAt)), msgText,
+                Message.RecipientStatus.PENDING, Collections.<MessagePart>emptyList(), false);
+    }
+
+    //Picks out the parts that have a renderer registered for their MIME type
+    private static List<MessagePart> getRenderedParts(List<MessagePart> parts) {
+        List<MessagePart> rendered = null;
+        for (int i = 0; i < parts.size(); i++) {
+            MessagePart part = parts.get(i);
+            if (PartDecoder.isText(part) || MessageView.getRenderer(part.getMimeType()) == null)
+                continue;
+
+            if (rendered == null)
+                rendered = new ArrayList<>();
+            rendered.add(part);
+        }
+
+        if (rendered == null)
+            return Collections.emptyList();
+
+        return Collections.unmodifiableList(rendered);
+    }
+
+    public Uri getId() {
+        return id;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public String getSenderText() {
+        return senderText;
+    }
+
+    public String getMessageText() {
+        return messageText;
+    }
+
+    public Message.RecipientStatus getStatus() {
+        return status;
+    }
+
+    public List<MessagePart> getRenderedParts() {
+        return renderedParts;
+    }
+
+    public boolean needsReadReceipt() {
+        return needsReadReceipt;
+    }
+
+    //Returns true for the optimistic row of a message that is still in the outbound queue
+    public boolean isPendingSend() {
+        return position >= PENDING_POSITION_BASE;
+    }
+}
@@ -0,0 +1,195 @@
+package com.layer.quick_start_android;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.query.CompoundPredicate;
+import com.layer.sdk.query.Predicate;
+import com.layer.sdk.query.Query;
+import com.layer.sdk.query.Queryable;
+import com.layer.sdk.query.SortDescriptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the messages in a conversation one page at a time, starting with the newest page. Older
+ * pages are queried on demand (when the user scrolls up), so opening a conversation costs the same
+ * no matter how long its history is.
+ *
+ * The pager only remembers the position of the oldest message that has been loaded. Each older
+ * page is queried with "position < oldest loaded position", which keeps the pages stable even when
+ * new messages arrive at the bottom of the conversation.
+ *
+ * The loaded messages can also start somewhere in the middle of the conversation (when jumping to
+ * an old message), in which case the pager remembers the newest loaded position as well, and newer
+ * pages are queried with "position > newest loaded position" until the newest message is reached.
+ */
+public class MessagePager {
+
+    //Number of messages to load with each query
+    public static final int PAGE_SIZE = 50;
+
+    //Number of messages to load when jumping to a message
+    public static final int JUMP_SIZE = 2 * PAGE_SIZE;
+
+    private LayerClient layerClient;
+    private Conversation conversation;
+
+    //Position of the oldest message that has been loaded so far
+    private long oldestPosition;
+
+    //True once a query came back with less than a full page, meaning there is nothing older
+    private boolean reachedStart;
+
+    //Position of the newest message that has been loaded, only used until the newest message in
+    // the conversation has been loaded
+    private long newestPosition;
+
+    //True while the loaded messages include the newest message in the conversation
+    private boolean reachedEnd;
+
+    public MessagePager(LayerClient client, Conversation conv) {
+        layerClient = client;
+        conversation = conv;
+        reset();
+    }
+
+    public Conversation getConversation() {
+        return conversation;
+    }
+
+    //Forgets everything that has been loaded, so the next page will be the newest one again
+    public void reset() {
+        oldestPosition = Long.MAX_VALUE;
+        reachedStart = false;
+        newestPosition = Long.MAX_VALUE;
+        reachedEnd = true;
+    }
+
+    //Returns the newest page of messages, ordered from oldest to newest
+    public List<Message> loadNewestPage() {
+        reset();
+        return loadOlder(inConversation());
+    }
+
+    //Returns the page of messages right before the oldest loaded message, ordered from oldest to
+    // newest. Returns an empty list if the start of the conversation has already been reached
+    public List<Message> loadOlderPage() {
+        if (!hasOlderPages())
+            return new ArrayList<>();
+
+        Predicate olderThan = new Predicate(Message.Property.POSITION, Predicate.Operator
+                .LESS_THAN, oldestPosition);
+
+        return loadOlder(new CompoundPredicate(CompoundPredicate.Type.AND, inConversation(),
+                olderThan));
+    }
+
+    //Forgets everything that has been loaded and returns up to JUMP_SIZE messages starting at the
+    // given position, ordered from oldest to newest. Older and newer pages are loaded from there
+    public List<Message> loadPageAt(long position) {
+        reset();
+        reachedEnd = false;
+
+        Predicate atOrAfter = new Predicate(Message.Property.POSITION, Predicate.Operator
+                .GREATER_THAN_OR_EQUAL, position);
+
+        List<Message> page = loadNewer(new CompoundPredicate(CompoundPredicate.Type.AND,
+                inConversation(), atOrAfter), JUMP_SIZE);
+        if (!page.isEmpty())
+            oldestPosition = page.get(0).getPosition();
+
+        return page;
+    }
+
+    //Returns the page of messages right after the newest loaded message, ordered from oldest to
+    // newest. Returns an empty list if the newest message has already been loaded
+    public List<Message> loadNewerPage() {
+        if (!hasNewerPages())
+            return new ArrayList<>();
+
+        Predicate newerThan = new Predicate(Message.Property.POSITION, Predicate.Operator
+                .GREATER_THAN, newestPosition);
+
+        return loadNewer(new CompoundPredicate(CompoundPredicate.Type.AND, inConversation(),
+                newerThan), PAGE_SIZE);
+    }
+
+    //Returns true if there may be messages older than the ones that have been loaded
+    public boolean hasOlderPages() {
+        return !reachedStart;
+    }
+
+    //Returns true if there are messages newer than the ones that have been loaded
+    public boolean hasNewerPages() {
+        return !reachedEnd;
+    }
+
+    //Returns true if a message at this position falls inside the loaded range. Messages outside of
+    // it will show up when their page is loaded
+    public boolean isLoaded(long position) {
+        return (reachedStart || position >= oldestPosition) && (reachedEnd || position <=
+                newestPosition);
+    }
+
+    //Called after the oldest messages have been evicted from memory, so that they are loaded
+    // again when the user scrolls back up
+    public void onOlderMessagesEvicted(long newOldestPosition) {
+        oldestPosition = newOldestPosition;
+        reachedStart = false;
+    }
+
+    private Predicate inConversation() {
+        return new Predicate(Message.Property.CONVERSATION, Predicate.Operator.EQUAL_TO,
+                conversation);
+    }
+
+    //Queries a page of messages going back in time, newest first, and flips it so it can be
+    // displayed top to bottom
+    private List<Message> loadOlder(Queryable predicate) {
+        List<Message> results = runQuery(predicate, SortDescriptor.Order.DESCENDING, PAGE_SIZE);
+
+        //A short page means we have reached the first message in the conversation
+        if (results.size() < PAGE_SIZE)
+            reachedStart = true;
+
+        if (results.size() > 0)
+            oldestPosition = Math.min(oldestPosition, results.get(results.size() - 1)
+                    .getPosition());
+
+        List<Message> page = new ArrayList<>(results);
+        Collections.reverse(page);
+        return page;
+    }
+
+    //Queries a page of messages going forward in time, which is already in display order
+    private List<Message> loadNewer(Queryable predicate, int limit) {
+        List<Message> page = runQuery(predicate, SortDescriptor.Order.ASCENDING, limit);
+
+        //A short page means we have reached the newest message in the conversation
+        if (page.size() < limit) {
+            reachedEnd = true;
+            newestPosition = Long.MAX_VALUE;
+        } else {
+            newestPosition = page.get(page.size() - 1).getPosition();
+        }
+
+        return page;
+    }
+
+    private List<Message> runQuery(Queryable predicate, SortDescriptor.Order order, int limit) {
+
+        Query query = Query.builder(Message.class)
+                .predicate(predicate)
+                .sortDescriptor(new SortDescriptor(Message.Property.POSITION, order))
+                .limit(limit).build();
+
+        List<Message> results = layerClient.executeQuery(query, Query.ResultType.OBJECTS);
+        if (results == null)
+            results = new ArrayList<>();
+
+        return results;
+    }
+}
@@ -0,0 +1,149 @@
+package com.layer.quick_start_android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs message queries and formatting on a single background thread and posts the results back to
+ * the main thread, so the UI thread only ever binds finished MessageItems to views.
+ *
+ * Tasks run one at a time, in the order they were submitted. Starting a reload cancels every task
+ * that is still waiting, and any result that was produced before the reload is dropped instead of
+ * being delivered, since the reload replaces everything on screen anyway. Work that has nothing
+ * to do with the messages on screen can be queued with run(), which reloads leave alone.
+ *
+ * All public methods must be called from the main thread.
+ */
+public class MessagePipeline {
+
+    private static final String TAG = MessagePipeline.class.getSimpleName();
+
+    //How long shutdown() waits for queued work (such as read receipts) to finish
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+
+    //A unit of work for the pipeline
+    public interface Task<T> {
+
+        //Runs on the worker thread, this is where queries and formatting happen
+        T doInBackground();
+
+        //Runs on the main thread with the result of doInBackground(), unless a reload was started
+        // after the task was submitted. The result is null if doInBackground() threw, so the
+        // task can undo whatever it set up before it was submitted
+        void onResult(T result);
+    }
+
+    private ExecutorService worker;
+    private Handler mainHandler;
+
+    //Tasks that have been submitted but may not have finished yet
+    private ArrayList<Future<?>> pending;
+
+    //Bumped every time a reload starts. Results from an older generation are stale
+    private int generation;
+
+    //Set once shutdown() has been called, after which no results are delivered
+    private boolean shutDown;
+
+    public MessagePipeline() {
+        worker = Executors.newSingleThreadExecutor();
+        mainHandler = new Handler(Looper.getMainLooper());
+        pending = new ArrayList<>();
+    }
+
+    //Cancels everything that is still queued and runs the task. Use this for work whose result
+    // replaces the whole conversation
+    public <T> void reload(Task<T> task) {
+        for (int i = 0; i < pending.size(); i++)
+            pending.get(i).cancel(false);
+
+        pending.clear();
+        generation++;
+        submit(task);
+    }
+
+    //Queues the task behind everything that has already been submitted
+    public <T> void submit(Task<T> task) {
+
+        //Forget about the tasks that have already run
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).isDone())
+                pending.remove(i);
+        }
+
+        pending.add(worker.submit(wrap(task, true)));
+    }
+
+    //Queues a task that isn't tied to the messages on screen, so reloads neither cancel it nor
+    // drop its result
+    public <T> void run(Task<T> task) {
+        worker.execute(wrap(task, false));
+    }
+
+    //Runs the task's background work, and delivers the result unless it went stale in the
+    // meantime
+    private <T> Runnable wrap(final Task<T> task, final boolean dropIfStale) {
+        final int submittedGeneration = generation;
+        return new Runnable() {
+            @Override
+            public void run() {
+
+                T value;
+                try {
+                    value = task.doInBackground();
+                } catch (Exception e) {
+                    Log.e(TAG, "Background task failed", e);
+                    value = null;
+                }
+
+                final T result = value;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (shutDown)
+                            return;
+
+                        //A reload was started while this task was running, so the result is stale
+                        if (dropIfStale && submittedGeneration != generation)
+                            return;
+
+                        task.onResult(result);
+                    }
+                });
+            }
+        };
+    }
+
+    //Runs some work on the worker thread that has no result, in order with the submitted tasks
+    public void execute(Runnable runnable) {
+        worker.execute(runnable);
+    }
+
+    //Stops the worker thread. Submitted tasks that haven't started are cancelled, but work queued
+    // with run() or execute() (such as a last batch of read receipts) still runs, and this waits a
+    // short while for it to finish. No results are delivered afterwards. The pipeline can't be used
+    // afterwards
+    public void shutdown() {
+        for (int i = 0; i < pending.size(); i++)
+            pending.get(i).cancel(false);
+
+        pending.clear();
+        shutDown = true;
+        worker.shutdown();
+
+        try {
+            if (!worker.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                Log.w(TAG, "Queued work didn't finish in " + SHUTDOWN_TIMEOUT_MS + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
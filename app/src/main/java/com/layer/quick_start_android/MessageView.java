@@ -1,6 +1,8 @@
 package com.layer.quick_start_android;
 
+import android.content.Context;
 import android.graphics.Typeface;
+import android.view.View;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
@@ -8,17 +10,22 @@ import android.widget.TextView;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
 
-import java.io.UnsupportedEncodingException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 /**
- * Takes a Layer Message object, formats the text and attaches it to a LinearLayout
+ * Holds the views for a single row of the conversation list and binds a formatted MessageItem to
+ * them. Rows are recycled by the ListView, so the same MessageView is re-bound to different
+ * messages as the user scrolls.
  */
 public class MessageView {
 
-    //The parent object (in this case, a LinearLayout object with a ScrollView parent)
-    private LinearLayout myParent;
+    //Renderers for message parts that aren't plain text, keyed by MIME type
+    private static HashMap<String, PartRenderer> renderers = new HashMap<>();
+
+    //The row that holds the sender details and the message text
+    private LinearLayout row;
 
     //The sender and message views
     private TextView senderTV;
@@ -28,157 +35,164 @@ public class MessageView {
 
     private LinearLayout messageDetails;
 
-    //Takes the Layout parent object and message
-    public MessageView(LinearLayout parent, Message msg) {
-        myParent = parent;
+    //The views created by part renderers for this row, one for each rendered part of the message,
+    // in order. They are only created once a message with that many parts is bound to the row, and
+    // each view remembers the renderer that created it
+    private ArrayList<View> partViews;
+    private ArrayList<PartRenderer> partRenderers;
+
+    //Creates the views for a row. They are not attached to anything until the ListView does so
+    public MessageView(Context context) {
+
+        //Each row stacks the details on top of the message text. The MessageView is stored as the
+        // tag so that it can be found again when the ListView hands back a recycled row
+        row = new LinearLayout(context);
+        row.setOrientation(LinearLayout.VERTICAL);
+        row.setTag(this);
 
         //The first part of each message will include the sender and status
-        messageDetails = new LinearLayout(parent.getContext());
+        messageDetails = new LinearLayout(context);
         messageDetails.setOrientation(LinearLayout.HORIZONTAL);
-        myParent.addView(messageDetails);
+        row.addView(messageDetails);
 
         //Creates the sender text view, sets the text to be italic, and attaches it to the parent
-        senderTV = new TextView(parent.getContext());
+        senderTV = new TextView(context);
         senderTV.setTypeface(null, Typeface.ITALIC);
         messageDetails.addView(senderTV);
 
-        //Creates the message text view and attaches it to the parent
-        messageTV = new TextView(parent.getContext());
-        myParent.addView(messageTV);
+        //Creates the message text view and attaches it to the parent. Long messages are cut off,
+        // which is also how much text MessageItem decodes for them
+        messageTV = new TextView(context);
+        messageTV.setMaxLines(MessageItem.MAX_PREVIEW_LINES);
+        row.addView(messageTV);
 
         //The status is displayed with an icon, depending on whether the message has been read,
         // delivered, or sent
-        //statusImage = new ImageView(parent.getContext());
-        statusImage = createStatusImage(msg);//statusImage.setImageResource(R.drawable.sent);
+        statusImage = createStatusImage(context);
         messageDetails.addView(statusImage);
 
-        //Populates the text views
-        UpdateMessage(msg);
+        partViews = new ArrayList<>();
+        partRenderers = new ArrayList<>();
     }
 
-    //Takes a message and sets the text in the two text views
-    public void UpdateMessage(Message msg) {
-        String senderTxt = craftSenderText(msg);
-        String msgTxt = craftMsgText(msg);
-
-        senderTV.setText(senderTxt);
-        messageTV.setText(msgTxt);
+    //Registers a renderer for message parts with the given MIME type. A type ending in "/*" (like
+    // "image/*") matches every subtype. Renderers should be registered before any messages are
+    // formatted, since the registry is read from the MessagePipeline's worker thread
+    public static void registerRenderer(String mimeType, PartRenderer renderer) {
+        renderers.put(mimeType.toLowerCase(), renderer);
     }
 
-    //The sender text is formatted like so:
-    //  User @ Timestamp - Status
-    private String craftSenderText(Message msg) {
+    //Returns the renderer for the MIME type, or null if that type can't be displayed
+    public static PartRenderer getRenderer(String mimeType) {
+        if (mimeType == null)
+            return null;
 
-        if (msg == null)
-            return "";
+        mimeType = mimeType.toLowerCase();
+        PartRenderer renderer = renderers.get(mimeType);
+        if (renderer != null)
+            return renderer;
 
-        //The User ID
-        String senderTxt = "";
-        if (msg.getSender() != null && msg.getSender().getUserId() != null)
-            senderTxt = msg.getSender().getUserId();
+        int slash = mimeType.indexOf('/');
+        if (slash < 0)
+            return null;
 
-        //Add the timestamp
-        if (msg.getSentAt() != null) {
-            senderTxt += " @ " + new SimpleDateFormat("HH:mm:ss").format(msg.getReceivedAt());
-        }
-
-        //Add some formatting before the status icon
-        senderTxt += "   ";
-
-        //Return the formatted text
-        return senderTxt;
+        return renderers.get(mimeType.substring(0, slash) + "/*");
     }
 
-    //Checks the recipient status of the message (based on all participants)
-    private Message.RecipientStatus getMessageStatus(Message msg) {
-
-        if (msg == null || msg.getSender() == null || msg.getSender().getUserId() == null)
-            return Message.RecipientStatus.PENDING;
+    //Returns the row view that should be handed to the ListView
+    public View getView() {
+        return row;
+    }
 
-        //If we didn't send the message, we already know the status - we have read it
-        if (!msg.getSender().getUserId().equalsIgnoreCase(MainActivity.getUserID()))
-            return Message.RecipientStatus.READ;
+    //Returns the MessageView that owns the given row, or null if the row was not created by a
+    // MessageView
+    public static MessageView fromView(View view) {
+        if (view != null && view.getTag() instanceof MessageView)
+            return (MessageView) view.getTag();
 
-        //Assume the message has been sent
-        Message.RecipientStatus status = Message.RecipientStatus.SENT;
+        return null;
+    }
 
-        //Go through each user to check the status, in this case we check each user and
-        // prioritize so
-        // that we return the highest status: Sent -> Delivered -> Read
-        for (int i = 0; i < MainActivity.getAllParticipants().size(); i++) {
+    //Takes a formatted message and sets the text in the two text views, the status icon, and any
+    // parts that aren't plain text
+    public void UpdateMessage(MessageItem item) {
+        senderTV.setText(item.getSenderText());
+        messageTV.setText(item.getMessageText());
+        messageTV.setVisibility(item.getMessageText().length() > 0 ? View.VISIBLE : View.GONE);
+        setStatusImage(item.getStatus());
+        bindParts(item.getRenderedParts());
+    }
 
-            //Don't check the status of the current user
-            String participant = MainActivity.getAllParticipants().get(i);
-            if (participant.equalsIgnoreCase(MainActivity.getUserID()))
-                continue;
+    //Hands each part to its renderer in a view of its own, and hides the part views this message
+    // doesn't use
+    private void bindParts(List<MessagePart> parts) {
 
-            if (status == Message.RecipientStatus.SENT) {
+        //The part views come after the details and the message text
+        int firstPartView = row.indexOfChild(messageTV) + 1;
 
-                if (msg.getRecipientStatus(participant) == Message.RecipientStatus.DELIVERED)
-                    status = Message.RecipientStatus.DELIVERED;
+        for (int i = 0; i < parts.size(); i++) {
+            MessagePart part = parts.get(i);
+            PartRenderer renderer = getRenderer(part.getMimeType());
 
-                if (msg.getRecipientStatus(participant) == Message.RecipientStatus.READ)
-                    return Message.RecipientStatus.READ;
+            //Reuse the view in this slot if it was created by the same renderer, otherwise
+            // replace it
+            if (i < partViews.size() && partRenderers.get(i) != renderer) {
+                partRenderers.get(i).unbind(partViews.get(i));
+                row.removeView(partViews.get(i));
+                partViews.remove(i);
+                partRenderers.remove(i);
+            }
 
-            } else if (status == Message.RecipientStatus.DELIVERED) {
-                if (msg.getRecipientStatus(participant) == Message.RecipientStatus.READ)
-                    return Message.RecipientStatus.READ;
+            if (i >= partViews.size() || partRenderers.get(i) != renderer) {
+                View view = renderer.createView(row.getContext());
+                partViews.add(i, view);
+                partRenderers.add(i, renderer);
+                row.addView(view, firstPartView + i);
             }
+
+            View view = partViews.get(i);
+            view.setVisibility(View.VISIBLE);
+            renderer.bind(view, part);
         }
 
-        return status;
+        for (int i = parts.size(); i < partViews.size(); i++) {
+            partRenderers.get(i).unbind(partViews.get(i));
+            partViews.get(i).setVisibility(View.GONE);
+        }
     }
 
-    //Checks the message parts and parses the message contents
-    private String craftMsgText(Message msg) {
-
-        //The message text
-        String msgText = "";
-
-        //Go through each part, and if it is text (which it should be by default), append it to the
-        // message text
-        List<MessagePart> parts = msg.getMessageParts();
-        for (int i = 0; i < msg.getMessageParts().size(); i++) {
+    //Creates the image view that holds the status icon
+    private ImageView createStatusImage(Context context) {
+        ImageView status = new ImageView(context);
 
-            //You can always set the mime type when creating a message part, by default the mime
-            // type is initialized to plain text when the message part is created
-            if (parts.get(i).getMimeType().equalsIgnoreCase("text/plain")) {
-                try {
-                    msgText += new String(parts.get(i).getData(), "UTF-8") + "\n";
-                } catch (UnsupportedEncodingException e) {
-
-                }
-            }
-        }
+        //Have the icon fill the space vertically
+        status.setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams
+                .WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT));
 
-        //Return the assembled text
-        return msgText;
+        return status;
     }
 
     //Sets the status image based on whether other users in the conversation have received or read
     //the message
-    private ImageView createStatusImage(Message msg) {
-        ImageView status = new ImageView(myParent.getContext());
-
-        switch (getMessageStatus(msg)) {
+    private void setStatusImage(Message.RecipientStatus status) {
+        switch (status) {
 
             case SENT:
-                status.setImageResource(R.drawable.sent);
+                statusImage.setImageResource(R.drawable.sent);
                 break;
 
             case DELIVERED:
-                status.setImageResource(R.drawable.delivered);
+                statusImage.setImageResource(R.drawable.delivered);
                 break;
 
             case READ:
-                status.setImageResource(R.drawable.read);
+                statusImage.setImageResource(R.drawable.read);
                 break;
-        }
-
-        //Have the icon fill the space vertically
-        status.setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams
-                .WRAP_CONTENT, LinearLayout.LayoutParams.MATCH_PARENT));
 
-        return status;
+            default:
+                //The row may have been recycled, so clear out the previous message's icon
+                statusImage.setImageDrawable(null);
+                break;
+        }
     }
 }
@@ -0,0 +1,178 @@
+package com.layer.quick_start_android;
+
+import android.graphics.Color;
+import android.util.Log;
+
+import com.layer.sdk.messaging.Metadata;
+
+import java.util.HashMap;
+
+/**
+ * Typed access to the state this app keeps in conversation metadata.
+ *
+ * Each piece of state is a Field, which knows how to pack its value into metadata and how to read
+ * it back (including from the formats older versions of the app wrote). Every write also stores
+ * the schema version, so a client can tell which format it is looking at.
+ *
+ * Schema versions:
+ *   1 - backgroundColor is a nested map of "red", "green" and "blue" float strings
+ *   2 - bg is a single packed ARGB color, written as 8 hex digits
+ *
+ * The iOS app, the Dashboard and older versions of this app only know version 1, so version 2
+ * still mirrors the color into backgroundColor. The mirror can be dropped (see
+ * MIRROR_LEGACY_COLOR) once those clients read bg. Until then, they may change backgroundColor
+ * without touching bg, so bg is only trusted while its red, green and blue still match
+ * backgroundColor.
+ */
+public class MetadataCodec {
+
+    private static final String TAG = MetadataCodec.class.getSimpleName();
+
+    //The version this app writes
+    public static final int SCHEMA_VERSION = 2;
+
+    //Metadata without a version was written before versioning was added
+    private static final int LEGACY_VERSION = 1;
+
+    public static final String VERSION_KEY = "v";
+
+    //Whether colors are also written in the version 1 format, for clients that don't know bg yet.
+    // Turn this off once they do, and only bg will be written
+    private static final boolean MIRROR_LEGACY_COLOR = true;
+
+    //A typed value stored under its own metadata key, plus any keys older clients read it from
+    public static abstract class Field<T> {
+
+        private final String key;
+
+        protected Field(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        //Packs the value into metadata that is about to be merged into a conversation
+        protected abstract void encode(Metadata metadata, T value);
+
+        //Reads the value out of the metadata, or returns null if it isn't set (or can't be read)
+        protected abstract T decode(Metadata metadata, int version);
+    }
+
+    //The top bar color, as an ARGB int
+    public static final Field<Integer> BACKGROUND_COLOR = new Field<Integer>("bg") {
+
+        //Where version 1 stored the color
+        private static final String LEGACY_KEY = "backgroundColor";
+
+        protected void encode(Metadata metadata, Integer color) {
+            metadata.put(getKey(), String.format("%08x", color));
+
+            if (MIRROR_LEGACY_COLOR) {
+                Metadata rgb = Metadata.newInstance();
+                rgb.put("red", Float.toString(Color.red(color) / 255.0f));
+                rgb.put("green", Float.toString(Color.green(color) / 255.0f));
+                rgb.put("blue", Float.toString(Color.blue(color) / 255.0f));
+                metadata.put(LEGACY_KEY, rgb);
+            }
+        }
+
+        protected Integer decode(Metadata metadata, int version) {
+            Object packed = metadata.get(getKey());
+            Integer legacy = null;
+            if (metadata.get(LEGACY_KEY) instanceof Metadata)
+                legacy = decodeLegacy((Metadata) metadata.get(LEGACY_KEY));
+
+            if (!(packed instanceof String))
+                return legacy;
+
+            //The packed color is exact, so prefer it unless a client that only knows version 1
+            // has changed the color since it was written
+            int color = (int) Long.parseLong((String) packed, 16);
+            if (legacy == null || sameRgb(color, legacy))
+                return color;
+
+            return legacy;
+        }
+
+        private Integer decodeLegacy(Metadata rgb) {
+            float red = Float.parseFloat((String) rgb.get("red"));
+            float green = Float.parseFloat((String) rgb.get("green"));
+            float blue = Float.parseFloat((String) rgb.get("blue"));
+
+            return Color.argb(255, (int) (255.0f * red), (int) (255.0f * green), (int) (255.0f *
+                    blue));
+        }
+
+        //The float strings can land a step below the exact channel, so allow for that
+        private boolean sameRgb(int packed, int legacy) {
+            return Math.abs(Color.red(packed) - Color.red(legacy)) <= 1
+                    && Math.abs(Color.green(packed) - Color.green(legacy)) <= 1
+                    && Math.abs(Color.blue(packed) - Color.blue(legacy)) <= 1;
+        }
+    };
+
+    //Decodes the fields of a conversation's metadata the first time each one is asked for, and
+    // remembers the result. Not thread safe
+    public static class Reader {
+
+        private Metadata metadata;
+        private int version;
+
+        //Decoded values, including the fields that weren't set (stored as null)
+        private HashMap<Field<?>, Object> decoded;
+
+        public Reader(Metadata metadata) {
+            this.metadata = metadata;
+            version = MetadataCodec.getVersion(metadata);
+            decoded = new HashMap<>();
+
+            if (version > SCHEMA_VERSION)
+                Log.w(TAG, "Metadata was written with schema version " + version + ", only " +
+                        "fields known to version " + SCHEMA_VERSION + " will be read");
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <T> T get(Field<T> field) {
+            if (decoded.containsKey(field))
+                return (T) decoded.get(field);
+
+            T value = null;
+            if (metadata != null) {
+                try {
+                    value = field.decode(metadata, version);
+                } catch (RuntimeException e) {
+                    //Another client wrote something we don't understand, so treat it as unset
+                    Log.w(TAG, "Could not decode " + field.getKey(), e);
+                }
+            }
+
+            decoded.put(field, value);
+            return value;
+        }
+    }
+
+    //Adds the encoded value to metadata that is about to be merged into a conversation, along with
+    // the schema version
+    public static <T> void put(Metadata metadata, Field<T> field, T value) {
+        metadata.put(VERSION_KEY, Integer.toString(SCHEMA_VERSION));
+        field.encode(metadata, value);
+    }
+
+    //Returns the schema version the metadata was written with
+    public static int getVersion(Metadata metadata) {
+        if (metadata == null || !(metadata.get(VERSION_KEY) instanceof String))
+            return LEGACY_VERSION;
+
+        try {
+            return Integer.parseInt((String) metadata.get(VERSION_KEY));
+        } catch (NumberFormatException e) {
+            return LEGACY_VERSION;
+        }
+    }
+}
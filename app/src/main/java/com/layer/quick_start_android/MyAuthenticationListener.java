@@ -1,27 +1,42 @@
 package com.layer.quick_start_android;
 
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.exceptions.LayerException;
 import com.layer.sdk.listeners.LayerAuthenticationListener;
 
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.util.EntityUtils;
-import org.json.JSONObject;
+import java.lang.ref.WeakReference;
 
 public class MyAuthenticationListener implements LayerAuthenticationListener {
 
     private static final String TAG = MyAuthenticationListener.class.getSimpleName();
 
-    private MainActivity main_activity;
+    //Held weakly, since the listener outlives the Activity
+    private WeakReference<MainActivity> main_activity;
+
+    //Exchanges nonces for Identity Tokens
+    private IdentityProviderClient identityProvider;
 
     public MyAuthenticationListener(MainActivity ma) {
-        main_activity = ma;
+        this(ma, new HttpIdentityProviderClient());
+    }
+
+    //Use this to plug in your own Authentication Service (or a local stand-in for testing)
+    public MyAuthenticationListener(MainActivity ma, IdentityProviderClient provider) {
+        setActivity(ma);
+        identityProvider = provider;
+    }
+
+    //Points the listener at a new Activity, for example after the old one was re-created
+    public void setActivity(MainActivity ma) {
+        main_activity = new WeakReference<>(ma);
+    }
+
+    //Stops calling back into the Activity once it has been destroyed
+    public void clearActivity(MainActivity ma) {
+        if (main_activity.get() == ma)
+            main_activity.clear();
     }
 
     //Called after layerClient.authenticate() executes
@@ -36,37 +51,26 @@ public class MyAuthenticationListener implements LayerAuthenticationListener {
     //   to call
     public void onAuthenticationChallenge(final LayerClient client, final String nonce) {
         final String mUserId = MainActivity.getUserID();
+        StartupTimeline.mark(StartupTimeline.AUTH_CHALLENGE);
+
+        //The request happens in the background, and a challenge that arrives while the same nonce
+        // is already being requested doesn't send another request
+        identityProvider.requestIdentityToken(client.getAppId(), mUserId, nonce, new
+                IdentityProviderClient.Callback() {
+            public void onIdentityToken(String nonce, String identityToken) {
+                client.answerAuthenticationChallenge(identityToken);
+            }
 
-        //Note: This Layer Authentication Service is for TESTING PURPOSES ONLY
-        //When going into production, you will need to create your own web service
-        //Check out https://developer.layer.com/docs/guides#authentication for guidance
-        (new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                try {
-                    HttpPost post = new HttpPost("https://layer-identity-provider.herokuapp" +
-                            ".com/identity_tokens");
-                    post.setHeader("Content-Type", "application/json");
-                    post.setHeader("Accept", "application/json");
-
-                    JSONObject json = new JSONObject()
-                            .put("app_id", client.getAppId())
-                            .put("user_id", mUserId)
-                            .put("nonce", nonce);
-                    post.setEntity(new StringEntity(json.toString()));
-
-                    HttpResponse response = (new DefaultHttpClient()).execute(post);
-                    String eit = (new JSONObject(EntityUtils.toString(response.getEntity())))
-                            .optString("identity_token");
-
-                    client.answerAuthenticationChallenge(eit);
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-                return null;
+            public void onError(String nonce, Exception e) {
+                //The SDK will challenge again the next time it tries to authenticate
+                Log.e(TAG, "Could not get an identity token for " + mUserId, e);
             }
-        }).execute();
+        });
+    }
+
+    //Opens the connection to the identity provider ahead of the first challenge
+    public void warmUp() {
+        identityProvider.warmUp();
     }
 
     //Called when the user has successfully authenticated
@@ -74,8 +78,10 @@ public class MyAuthenticationListener implements LayerAuthenticationListener {
 
         //Start the conversation view after a successful authentication
         Log.v(TAG, "Authentication successful");
-        if (main_activity != null)
-            main_activity.onUserAuthenticated();
+        StartupTimeline.mark(StartupTimeline.AUTHENTICATED);
+        MainActivity ma = main_activity.get();
+        if (ma != null)
+            ma.onUserAuthenticated();
     }
 
     //Called when there was a problem authenticating
@@ -6,15 +6,37 @@ import com.layer.sdk.LayerClient;
 import com.layer.sdk.exceptions.LayerException;
 import com.layer.sdk.listeners.LayerConnectionListener;
 
+import java.lang.ref.WeakReference;
+
 public class MyConnectionListener implements LayerConnectionListener {
 
     private static final String TAG = MyConnectionListener.class.getSimpleName();
 
-    private MainActivity main_activity;
+    //Held weakly, since the listener outlives the Activity
+    private WeakReference<MainActivity> main_activity;
+
+    //Tracks the connection state and how outages played out
+    private ConnectionMonitor monitor;
 
     public MyConnectionListener(MainActivity ma) {
         //Cache off the main activity in order to perform callbacks
-        main_activity = ma;
+        setActivity(ma);
+        monitor = new ConnectionMonitor();
+    }
+
+    public ConnectionMonitor getMonitor() {
+        return monitor;
+    }
+
+    //Points the listener at a new Activity, for example after the old one was re-created
+    public void setActivity(MainActivity ma) {
+        main_activity = new WeakReference<>(ma);
+    }
+
+    //Stops calling back into the Activity once it has been destroyed
+    public void clearActivity(MainActivity ma) {
+        if (main_activity.get() == ma)
+            main_activity.clear();
     }
 
     //Called on connection success. The Quick Start App immediately tries to
@@ -22,20 +44,29 @@ public class MyConnectionListener implements LayerConnectionListener {
     //screen).
     public void onConnectionConnected(LayerClient client) {
         Log.v(TAG, "Connected to Layer");
+        StartupTimeline.mark(StartupTimeline.CONNECTED);
 
         //If the user is already authenticated (and this connection was being established after
         // the app was disconnected from the network), then start the conversation view.
         //Otherwise, start the authentication process, which effectively "logs in" a user
-        if (client.isAuthenticated())
-            main_activity.onUserAuthenticated();
-        else
+        MainActivity ma = main_activity.get();
+        if (!client.isAuthenticated())
             client.authenticate();
+        else if (ma != null)
+            ma.onUserAuthenticated();
 
+        //Work that was held back while offline can be sent now
+        if (monitor.onConnected())
+            notifyStateChanged();
     }
 
     //Called when the connection is closed
     public void onConnectionDisconnected(LayerClient client) {
         Log.v(TAG, "Connection to Layer closed");
+
+        //Hold outgoing work until the connection comes back
+        if (monitor.onDisconnected())
+            notifyStateChanged();
     }
 
     //Called when there is an error establishing a connection. There is no need to re-establish
@@ -45,5 +76,14 @@ public class MyConnectionListener implements LayerConnectionListener {
     // authenticated user).
     public void onConnectionError(LayerClient client, LayerException e) {
         Log.v(TAG, "Error connecting to layer: " + e.toString());
+
+        if (monitor.onError())
+            notifyStateChanged();
+    }
+
+    private void notifyStateChanged() {
+        MainActivity ma = main_activity.get();
+        if (ma != null)
+            ma.onConnectionStateChanged(monitor.getState());
     }
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+package com.layer.quick_start_android;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns push notifications into one notification per conversation.
+ *
+ * Each conversation gets a notification with a stable id, which lists its most recent messages
+ * (inbox style) along with the number of messages that arrived since the user last looked. Pushes
+ * are handed to a background thread, where they are held for a moment so that a burst of pushes
+ * rebuilds each notification only once. A conversation only makes a sound and vibrates once per
+ * quiet window, so a burst of messages doesn't turn into a burst of alerts.
+ *
+ * The aggregator lives as long as the process, since a new LayerPushReceiver is created for every
+ * push. All of its state is only touched from its own thread.
+ */
+public class NotificationAggregator {
+
+    //Pushes that arrive within this long of each other are shown together
+    public static final long COALESCE_DELAY_MS = 250;
+
+    //A conversation alerts the user at most once in this long
+    public static final long QUIET_WINDOW_MS = 5000;
+
+    //Number of messages listed in each notification
+    public static final int MAX_LINES = 6;
+
+    //The notification id for pushes that don't say which conversation they are about
+    private static final int UNKNOWN_CONVERSATION_ID = 1;
+
+    //The messages that haven't been seen yet in a single conversation
+    private static class ConversationNotification {
+        Uri conversationId;
+        LinkedList<String> lines = new LinkedList<>();
+        int count;
+        boolean changed;
+        long lastAlertAt = -QUIET_WINDOW_MS;
+    }
+
+    private static NotificationAggregator instance;
+
+    private Context context;
+    private NotificationManager notificationManager;
+    private ScheduledExecutorService worker;
+
+    private HashMap<Integer, ConversationNotification> entries;
+
+    //Broadcasts that are waiting for their push to be shown
+    private List<BroadcastReceiver.PendingResult> pendingResults;
+    private boolean flushScheduled;
+
+    private Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    public static synchronized NotificationAggregator getInstance(Context context) {
+        if (instance == null)
+            instance = new NotificationAggregator(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private NotificationAggregator(Context context) {
+        this.context = context;
+        notificationManager = (NotificationManager) context.getSystemService(Context
+                .NOTIFICATION_SERVICE);
+        worker = Executors.newSingleThreadScheduledExecutor();
+        entries = new HashMap<>();
+        pendingResults = new ArrayList<>();
+    }
+
+    //Returns the notification id for the conversation, which is the same every time
+    public static int getNotificationId(Uri conversationId) {
+        if (conversationId == null)
+            return UNKNOWN_CONVERSATION_ID;
+
+        return conversationId.toString().hashCode();
+    }
+
+    //Adds the push to its conversation's notification. The broadcast (from goAsync()) is finished
+    // once the notification has been posted, and may be null
+    public void add(final Uri conversationId, final String message, final BroadcastReceiver
+            .PendingResult result) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                int id = getNotificationId(conversationId);
+                ConversationNotification entry = entries.get(id);
+                if (entry == null) {
+                    entry = new ConversationNotification();
+                    entry.conversationId = conversationId;
+                    entries.put(id, entry);
+                }
+
+                entry.lines.addLast(message);
+                if (entry.lines.size() > MAX_LINES)
+                    entry.lines.removeFirst();
+                entry.count++;
+                entry.changed = true;
+
+                if (result != null)
+                    pendingResults.add(result);
+
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    worker.schedule(flush, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+                }
+            }
+        });
+    }
+
+    //Removes the conversation's notification and forgets its messages, once the user has opened
+    // or dismissed it
+    public void clear(final Uri conversationId) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                int id = getNotificationId(conversationId);
+                entries.remove(id);
+                notificationManager.cancel(id);
+            }
+        });
+    }
+
+    //Posts every notification that changed, then lets the waiting broadcasts finish
+    private void flush() {
+        long now = SystemClock.elapsedRealtime();
+
+        for (Map.Entry<Integer, ConversationNotification> entry : entries.entrySet()) {
+            ConversationNotification notification = entry.getValue();
+            if (!notification.changed)
+                continue;
+
+            notification.changed = false;
+            notificationManager.notify(entry.getKey(), build(entry.getKey(), notification, now));
+        }
+
+        for (int i = 0; i < pendingResults.size(); i++)
+            pendingResults.get(i).finish();
+        pendingResults.clear();
+    }
+
+    private Notification build(int id, ConversationNotification entry, long now) {
+        String title = context.getResources().getString(R.string.app_name);
+        String latest = entry.lines.getLast();
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(title)
+                .setContentText(latest)
+                .setNumber(entry.count)
+                .setAutoCancel(true)
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT);
+
+        //Several messages are listed, newest last
+        if (entry.count > 1) {
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                    .setBigContentTitle(entry.count + " new messages");
+            for (String line : entry.lines)
+                style.addLine(line);
+            if (entry.count > entry.lines.size())
+                style.setSummaryText("+" + (entry.count - entry.lines.size()) + " more");
+
+            builder.setContentTitle(entry.count + " new messages").setStyle(style);
+        }
+
+        //Only make a sound and vibrate if the conversation has been quiet for a while
+        if (now - entry.lastAlertAt >= QUIET_WINDOW_MS) {
+            entry.lastAlertAt = now;
+            builder.setDefaults(NotificationCompat.DEFAULT_SOUND | NotificationCompat
+                    .DEFAULT_VIBRATE);
+        }
+
+        //Tapping the notification opens the conversation. Each conversation needs its own request
+        // code, otherwise every notification would share the most recent intent
+        Intent resultIntent = new Intent(context, MainActivity.class);
+        resultIntent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        resultIntent.putExtra(MainActivity.EXTRA_CONVERSATION_ID, entry.conversationId);
+        builder.setContentIntent(PendingIntent.getActivity(context, id, resultIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT));
+
+        //Dismissing the notification starts the conversation's list over
+        Intent deleteIntent = new Intent(context, LayerPushReceiver.class);
+        deleteIntent.setAction(LayerPushReceiver.ACTION_NOTIFICATION_DISMISSED);
+        deleteIntent.putExtra(MainActivity.EXTRA_CONVERSATION_ID, entry.conversationId);
+        builder.setDeleteIntent(PendingIntent.getBroadcast(context, id, deleteIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT));
+
+        return builder.build();
+    }
+}
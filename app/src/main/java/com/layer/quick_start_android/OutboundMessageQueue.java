@@ -0,0 +1,254 @@
+package com.layer.quick_start_android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Holds the messages the user has sent until they have been handed to the Layer SDK, so a message
+ * is never lost because there was no conversation yet or the connection was down.
+ *
+ * Messages are written to SharedPreferences as soon as they are queued, and survive the app being
+ * killed. Sends that are queued close together are flushed in a single pass. While the client is
+ * disconnected (or a send fails) the queue retries with exponential backoff, and it flushes
+ * straight away once the connection comes back.
+ *
+ * All methods must be called from the main thread.
+ */
+public class OutboundMessageQueue {
+
+    private static final String TAG = OutboundMessageQueue.class.getSimpleName();
+
+    private static final String PREFERENCES = "outbound_queue";
+    private static final String KEY_MESSAGES = "messages";
+    private static final String KEY_SEQUENCE = "sequence";
+
+    //Messages queued within this long of each other are sent together
+    public static final long BATCH_WINDOW_MS = 50;
+
+    //Retries start this far apart and double up to the maximum
+    public static final long MIN_BACKOFF_MS = 1000;
+    public static final long MAX_BACKOFF_MS = 60000;
+
+    //A message the user has sent, but that hasn't been handed to the SDK yet
+    public static class PendingMessage {
+
+        //Identifies the optimistic row for this message until the real one replaces it
+        public final Uri localId;
+
+        //The conversation it is being sent to, or null for the conversation between the default
+        // participants (which may not exist yet)
+        public final Uri conversationId;
+
+        public final String text;
+        public final long queuedAt;
+
+        //Increases with every message, so pending messages keep the order they were sent in
+        public final long sequence;
+
+        PendingMessage(Uri localId, Uri conversationId, String text, long queuedAt, long sequence) {
+            this.localId = localId;
+            this.conversationId = conversationId;
+            this.text = text;
+            this.queuedAt = queuedAt;
+            this.sequence = sequence;
+        }
+    }
+
+    //Hands a pending message to the SDK
+    public interface Sender {
+
+        //Returns true if the message was sent, or false if it should be tried again later
+        boolean send(PendingMessage message);
+
+        //Called once a message has been sent and removed from the queue
+        void onSent(PendingMessage message);
+    }
+
+    private Sender sender;
+    private SharedPreferences preferences;
+    private Handler handler;
+
+    //Messages in the order they were queued
+    private ArrayList<PendingMessage> messages;
+    private long nextSequence;
+
+    private boolean connected;
+    private boolean flushScheduled;
+    private long backoff;
+
+    private Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    public OutboundMessageQueue(Context context, Sender sender) {
+        this.sender = sender;
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        handler = new Handler(Looper.getMainLooper());
+        messages = new ArrayList<>();
+        backoff = MIN_BACKOFF_MS;
+        restore();
+    }
+
+    //Queues the text to be sent to the conversation (or to the default conversation, if the id is
+    // null) and returns the pending message so it can be shown straight away
+    public PendingMessage enqueue(String text, Uri conversationId) {
+        long sequence = nextSequence++;
+        PendingMessage message = new PendingMessage(Uri.parse("pending://" + UUID.randomUUID()),
+                conversationId, text, System.currentTimeMillis(), sequence);
+
+        messages.add(message);
+        persist();
+        schedule(BATCH_WINDOW_MS);
+        return message;
+    }
+
+    //Messages that haven't been sent yet, oldest first
+    public List<PendingMessage> getPending() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    //Stops retrying. The queued messages stay saved, and are picked up by the next queue that is
+    // created
+    public void stop() {
+        handler.removeCallbacks(flush);
+        flushScheduled = false;
+    }
+
+    //Sends everything that is queued once the client connects, and holds messages back while it is
+    // disconnected
+    public void setConnected(boolean connected) {
+        this.connected = connected;
+
+        if (connected && !messages.isEmpty()) {
+            backoff = MIN_BACKOFF_MS;
+            handler.removeCallbacks(flush);
+            flushScheduled = false;
+            flush();
+        }
+    }
+
+    //Sends every queued message, in order. Stops at the first message that can't be sent, so later
+    // messages never overtake it, and tries again after the backoff
+    public void flush() {
+        if (messages.isEmpty())
+            return;
+
+        if (!connected) {
+            retryLater();
+            return;
+        }
+
+        int sent = 0;
+        while (sent < messages.size()) {
+            PendingMessage message = messages.get(sent);
+            if (!sender.send(message))
+                break;
+
+            sent++;
+        }
+
+        if (sent > 0) {
+            List<PendingMessage> done = new ArrayList<>(messages.subList(0, sent));
+            messages.subList(0, sent).clear();
+            persist();
+
+            for (int i = 0; i < done.size(); i++)
+                sender.onSent(done.get(i));
+        }
+
+        if (messages.isEmpty())
+            backoff = MIN_BACKOFF_MS;
+        else
+            retryLater();
+    }
+
+    private void retryLater() {
+        Log.v(TAG, messages.size() + " messages waiting to be sent, retrying in " + backoff + "ms");
+        schedule(backoff);
+        backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+    }
+
+    private void schedule(long delay) {
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        handler.postDelayed(flush, delay);
+    }
+
+    //Writes the whole queue out. apply() does the disk write in the background
+    private void persist() {
+        JSONArray array = new JSONArray();
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                PendingMessage message = messages.get(i);
+                JSONObject json = new JSONObject()
+                        .put("localId", message.localId.toString())
+                        .put("text", message.text)
+                        .put("queuedAt", message.queuedAt)
+                        .put("sequence", message.sequence);
+
+                if (message.conversationId != null)
+                    json.put("conversationId", message.conversationId.toString());
+
+                array.put(json);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not save the outbound queue", e);
+            return;
+        }
+
+        preferences.edit()
+                .putString(KEY_MESSAGES, array.toString())
+                .putLong(KEY_SEQUENCE, nextSequence)
+                .apply();
+    }
+
+    //Reads back the messages that were still queued when the app was last closed
+    private void restore() {
+        nextSequence = preferences.getLong(KEY_SEQUENCE, 0);
+
+        String saved = preferences.getString(KEY_MESSAGES, null);
+        if (saved == null)
+            return;
+
+        try {
+            JSONArray array = new JSONArray(saved);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.getJSONObject(i);
+                String conversationId = json.has("conversationId") ? json.getString
+                        ("conversationId") : null;
+
+                messages.add(new PendingMessage(Uri.parse(json.getString("localId")),
+                        (conversationId != null) ? Uri.parse(conversationId) : null, json
+                        .getString("text"), json.optLong("queuedAt"), json.optLong("sequence")));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not restore the outbound queue", e);
+        }
+
+        if (!messages.isEmpty())
+            Log.v(TAG, "Restored " + messages.size() + " unsent messages");
+    }
+}
@@ -0,0 +1,128 @@
+package com.layer.quick_start_android;
+
+import com.layer.sdk.messaging.MessagePart;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * Decodes the text parts of a message into the string that is displayed for it.
+ *
+ * All of the parts are assembled in a single pass. Each part's bytes are decoded in place (they
+ * are wrapped, not copied) through a reusable buffer, and decoding stops as soon as the preview is
+ * long enough, so a huge part is only decoded as far as the screen can show.
+ *
+ * Every thread gets its own decoder and buffers, so the static methods can be called from any
+ * thread.
+ */
+public class PartDecoder {
+
+    //The MIME type a message part is given by default
+    public static final String MIME_TEXT_PLAIN = "text/plain";
+
+    //Added to the end of the text when it was cut short
+    private static final char ELLIPSIS = '\u2026';
+
+    //How many characters are decoded at a time
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<CharsetDecoder> DECODER = new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+
+    private static final ThreadLocal<CharBuffer> CHUNK = new ThreadLocal<CharBuffer>() {
+        @Override
+        protected CharBuffer initialValue() {
+            return CharBuffer.allocate(CHUNK_SIZE);
+        }
+    };
+
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(CHUNK_SIZE);
+        }
+    };
+
+    //Returns true if the part holds text that decodeText() can display
+    public static boolean isText(MessagePart part) {
+
+        //You can always set the mime type when creating a message part, by default the mime type
+        // is initialized to plain text when the message part is created
+        return MIME_TEXT_PLAIN.equalsIgnoreCase(part.getMimeType());
+    }
+
+    //Goes through each part, and if it is text, appends it to the message text. At most maxChars
+    // characters are decoded, after which the text is cut off with an ellipsis
+    public static String decodeText(List<MessagePart> parts, int maxChars) {
+
+        StringBuilder text = BUILDER.get();
+        text.setLength(0);
+
+        int count = parts.size();
+        for (int i = 0; i < count; i++) {
+            MessagePart part = parts.get(i);
+            if (!isText(part))
+                continue;
+
+            if (!decodePart(part.getData(), text, maxChars)) {
+                text.append(ELLIPSIS);
+                break;
+            }
+
+            text.append('\n');
+        }
+
+        return text.toString();
+    }
+
+    //Decodes a single part onto the end of the text. Returns false if the text reached maxChars
+    // before the whole part was decoded
+    private static boolean decodePart(byte[] data, StringBuilder text, int maxChars) {
+        if (data == null)
+            return true;
+
+        CharsetDecoder decoder = DECODER.get();
+        CharBuffer chunk = CHUNK.get();
+        ByteBuffer in = ByteBuffer.wrap(data);
+
+        decoder.reset();
+        while (true) {
+            int remaining = maxChars - text.length();
+            if (remaining <= 0)
+                return !in.hasRemaining();
+
+            chunk.clear();
+            chunk.limit(Math.min(chunk.capacity(), remaining));
+            CoderResult result = decoder.decode(in, chunk, true);
+            chunk.flip();
+
+            //Not even one more character fits (it might need a surrogate pair), so stop here
+            if (result.isOverflow() && !chunk.hasRemaining())
+                return false;
+
+            text.append(chunk);
+
+            //The whole part has been decoded
+            if (result.isUnderflow()) {
+                chunk.clear();
+                decoder.flush(chunk);
+                chunk.flip();
+                text.append(chunk);
+                return true;
+            }
+        }
+    }
+}
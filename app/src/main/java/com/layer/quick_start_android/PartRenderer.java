@@ -0,0 +1,26 @@
+package com.layer.quick_start_android;
+
+import android.content.Context;
+import android.view.View;
+
+import com.layer.sdk.messaging.MessagePart;
+
+/**
+ * Displays message parts that aren't plain text. Renderers are registered with MessageView by MIME
+ * type, and each row creates one view per rendered part, which is re-bound as the row is
+ * recycled.
+ */
+public interface PartRenderer {
+
+    //Creates a view that displays a part of this type. Called on the main thread, once for each
+    // part of this type a row has to show at the same time
+    View createView(Context context);
+
+    //Shows the part in a view created by createView(). Called on the main thread every time the
+    // row is bound, so anything expensive should be done in the background
+    void bind(View view, MessagePart part);
+
+    //Called when the row is re-bound to a message that doesn't need this view, because it has fewer
+    // parts or a different kind of part in this place
+    void unbind(View view);
+}
@@ -0,0 +1,110 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import com.layer.sdk.messaging.Conversation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Finds the newest conversation between a set of participants without querying the SDK.
+ *
+ * Participant sets are canonicalized (lower case, sorted, no duplicates) so the same people in a
+ * different order map to the same key. Each key keeps its conversations newest first, so the lookup
+ * is a single map access, and deleting the newest conversation falls back to the next one.
+ *
+ * ConversationIndex keeps this up to date, and it must only be used from the main thread.
+ */
+public class ParticipantIndex {
+
+    //Separates user ids in a key. It can't appear in a user id
+    private static final char SEPARATOR = '\u0000';
+
+    //The conversations between each set of participants, newest first
+    private HashMap<String, ArrayList<Conversation>> byParticipants;
+
+    //The key each conversation was added under, since its participants may have changed by the
+    // time it is removed
+    private HashMap<Uri, String> keys;
+
+    public ParticipantIndex() {
+        byParticipants = new HashMap<>();
+        keys = new HashMap<>();
+    }
+
+    //Returns the newest conversation between exactly these participants, or null if there isn't
+    // one
+    public Conversation get(Collection<String> participants) {
+        ArrayList<Conversation> conversations = byParticipants.get(getKey(participants));
+        return (conversations == null) ? null : conversations.get(0);
+    }
+
+    public void add(Conversation conversation) {
+        String key = getKey(conversation.getParticipants());
+        keys.put(conversation.getId(), key);
+
+        ArrayList<Conversation> conversations = byParticipants.get(key);
+        if (conversations == null) {
+            conversations = new ArrayList<>(1);
+            byParticipants.put(key, conversations);
+        }
+
+        //There are rarely more than a couple of conversations with the same participants, so a
+        // linear insert is fine
+        long createdAt = getCreatedAt(conversation);
+        int index = 0;
+        while (index < conversations.size() && getCreatedAt(conversations.get(index)) >= createdAt)
+            index++;
+
+        conversations.add(index, conversation);
+    }
+
+    public void remove(Uri conversationId) {
+        String key = keys.remove(conversationId);
+        if (key == null)
+            return;
+
+        ArrayList<Conversation> conversations = byParticipants.get(key);
+        for (int i = 0; i < conversations.size(); i++) {
+            if (conversations.get(i).getId().equals(conversationId)) {
+                conversations.remove(i);
+                break;
+            }
+        }
+
+        if (conversations.isEmpty())
+            byParticipants.remove(key);
+    }
+
+    //Builds the same key for the same people, regardless of order or case
+    public static String getKey(Collection<String> participants) {
+        String[] ids = new String[participants.size()];
+        int i = 0;
+        for (String participant : participants)
+            ids[i++] = participant.toLowerCase(Locale.US);
+
+        Arrays.sort(ids);
+
+        StringBuilder key = new StringBuilder();
+        for (i = 0; i < ids.length; i++) {
+            if (i > 0 && ids[i].equals(ids[i - 1]))
+                continue;
+
+            if (key.length() > 0)
+                key.append(SEPARATOR);
+            key.append(ids[i]);
+        }
+
+        return key.toString();
+    }
+
+    private static long getCreatedAt(Conversation conversation) {
+        Date createdAt = conversation.getCreatedAt();
+        return (createdAt == null) ? 0 : createdAt.getTime();
+    }
+}
@@ -0,0 +1,120 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.query.Predicate;
+import com.layer.sdk.query.Query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Marks messages as read once the user has actually seen them.
+ *
+ * Rows report the messages they show as they come on screen, and only messages that still need a
+ * receipt are collected. The receipts are sent in batches, either a short while after the first one
+ * was collected or as soon as the list stops scrolling, with a single query for the whole batch on
+ * the pipeline's worker thread. A message is never marked twice, so the change events caused by a
+ * receipt don't lead to another one.
+ *
+ * All methods must be called from the main thread.
+ */
+public class ReadReceiptManager {
+
+    private static final String TAG = ReadReceiptManager.class.getSimpleName();
+
+    //Receipts are sent at most this long after the message came on screen
+    public static final long FLUSH_DELAY_MS = 1000;
+
+    private LayerClient layerClient;
+    private MessagePipeline pipeline;
+    private Handler handler;
+
+    //Messages waiting to be marked, in the order they were seen
+    private LinkedHashSet<Uri> pending;
+
+    //Messages that have been marked, but whose read status hasn't come back yet
+    private HashSet<Uri> marked;
+
+    private boolean flushScheduled;
+    private long receiptsSent;
+
+    private Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            flush();
+        }
+    };
+
+    public ReadReceiptManager(LayerClient client, MessagePipeline pipeline) {
+        layerClient = client;
+        this.pipeline = pipeline;
+        handler = new Handler(Looper.getMainLooper());
+        pending = new LinkedHashSet<>();
+        marked = new HashSet<>();
+    }
+
+    //Call this for every message that is on screen
+    public void onVisible(MessageItem item) {
+        Uri id = item.getId();
+
+        //Once the message shows up as read it can't need another receipt, so stop tracking it
+        if (!item.needsReadReceipt()) {
+            marked.remove(id);
+            return;
+        }
+
+        if (marked.contains(id) || !pending.add(id))
+            return;
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flush, FLUSH_DELAY_MS);
+        }
+    }
+
+    //Sends every receipt that has been collected so far
+    public void flush() {
+        handler.removeCallbacks(flush);
+        flushScheduled = false;
+
+        if (pending.isEmpty())
+            return;
+
+        final List<Uri> batch = new ArrayList<>(pending);
+        marked.addAll(pending);
+        pending.clear();
+        receiptsSent += batch.size();
+
+        pipeline.execute(new Runnable() {
+            @Override
+            public void run() {
+                Query query = Query.builder(Message.class)
+                        .predicate(new Predicate(Message.Property.ID, Predicate.Operator.IN,
+                                batch)).build();
+
+                List<Message> messages = layerClient.executeQuery(query, Query.ResultType.OBJECTS);
+                if (messages == null)
+                    return;
+
+                for (int i = 0; i < messages.size(); i++)
+                    messages.get(i).markAsRead();
+
+                Log.v(TAG, "Marked " + messages.size() + " messages as read");
+            }
+        });
+    }
+
+    //The number of messages that have been marked as read
+    public long getReceiptsSent() {
+        return receiptsSent;
+    }
+}
@@ -0,0 +1,102 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import com.layer.sdk.messaging.Message;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Remembers the aggregate recipient status (Sent -> Delivered -> Read) of each message, so it is
+ * only worked out again when a recipient status actually changes.
+ *
+ * The cache is not synchronized. It is only used from the MessagePipeline's worker thread.
+ */
+public class RecipientStatusCache {
+
+    //The name of the attribute in a message UPDATE change when a recipient status changes
+    public static final String RECIPIENT_STATUS_ATTRIBUTE = "recipientStatus";
+
+    //The local user, and everyone else whose status counts towards the aggregate
+    private String userId;
+    private String[] otherParticipants;
+
+    private HashMap<Uri, Message.RecipientStatus> statuses;
+
+    public RecipientStatusCache(String localUserId) {
+        userId = localUserId;
+        otherParticipants = new String[0];
+        statuses = new HashMap<>();
+    }
+
+    //Returns true if the change means the cached status for a message is out of date
+    public static boolean isStatusChange(String attributeName) {
+        return RECIPIENT_STATUS_ATTRIBUTE.equals(attributeName);
+    }
+
+    //Returns the aggregate status of the message, working it out only if it isn't cached
+    public Message.RecipientStatus getStatus(Message msg) {
+
+        if (msg == null || msg.getSender() == null || msg.getSender().getUserId() == null)
+            return Message.RecipientStatus.PENDING;
+
+        Message.RecipientStatus status = statuses.get(msg.getId());
+        if (status == null) {
+            status = computeStatus(msg);
+            statuses.put(msg.getId(), status);
+        }
+
+        return status;
+    }
+
+    //Forgets the status of a single message, call this when its recipient status changes
+    public void invalidate(Uri id) {
+        statuses.remove(id);
+    }
+
+    //Forgets everything and checks these participants from now on, call this when switching
+    // conversations
+    public void setParticipants(List<String> participants) {
+        statuses.clear();
+
+        //Don't check the status of the current user
+        int others = 0;
+        for (int i = 0; i < participants.size(); i++) {
+            if (!participants.get(i).equalsIgnoreCase(userId))
+                others++;
+        }
+
+        otherParticipants = new String[others];
+        int next = 0;
+        for (int i = 0; i < participants.size(); i++) {
+            if (!participants.get(i).equalsIgnoreCase(userId))
+                otherParticipants[next++] = participants.get(i);
+        }
+    }
+
+    //Checks the recipient status of the message (based on all participants)
+    private Message.RecipientStatus computeStatus(Message msg) {
+
+        //If we didn't send the message, we already know the status - we have read it
+        if (!msg.getSender().getUserId().equalsIgnoreCase(userId))
+            return Message.RecipientStatus.READ;
+
+        //Assume the message has been sent, then go through each user to check the status and
+        // return the highest one: Sent -> Delivered -> Read
+        Message.RecipientStatus status = Message.RecipientStatus.SENT;
+        for (int i = 0; i < otherParticipants.length; i++) {
+
+            Message.RecipientStatus participantStatus = msg.getRecipientStatus
+                    (otherParticipants[i]);
+
+            if (participantStatus == Message.RecipientStatus.READ)
+                return Message.RecipientStatus.READ;
+
+            if (participantStatus == Message.RecipientStatus.DELIVERED)
+                status = Message.RecipientStatus.DELIVERED;
+        }
+
+        return status;
+    }
+}
@@ -0,0 +1,72 @@
+package com.layer.quick_start_android;
+
+import android.util.Log;
+
+import com.layer.sdk.LayerClient;
+
+/**
+ * Gets the app from launch to a usable conversation screen with as little waiting as possible.
+ *
+ * Connecting and authenticating used to happen strictly in turn, with the loading screen up until
+ * both were done. Now, if a user is already authenticated from an earlier run, the conversation
+ * screen is shown straight away from the SDK's local storage while the connection is established
+ * in the background. If a user still needs to authenticate, the connection to the identity provider
+ * is opened while Layer is connecting, so the challenge that follows doesn't pay for the TLS
+ * handshake. The Identity Token itself can't be fetched early, because it has to include the
+ * challenge's nonce.
+ *
+ * All steps are recorded in the StartupTimeline.
+ */
+public class StartupOrchestrator {
+
+    private static final String TAG = StartupOrchestrator.class.getSimpleName();
+
+    private LayerClient layerClient;
+    private MyAuthenticationListener authenticationListener;
+
+    public StartupOrchestrator(LayerClient client, MyAuthenticationListener authListener) {
+        layerClient = client;
+        authenticationListener = authListener;
+    }
+
+    //Check the current state of the SDK and start whatever is missing. The client must be
+    // CONNECTED and the user must be AUTHENTICATED in order to send and receive messages. Note: it
+    // is possible to be authenticated, but not connected, and vice versa, so it is a best practice
+    // to check both states when your app launches or comes to the foreground.
+    public void start(MainActivity ma) {
+
+        //If a user is already authenticated, their conversations are already on the device, so
+        // show them without waiting for the connection. Messages that are sent before the
+        // connection is up are queued
+        if (layerClient.isAuthenticated()) {
+            StartupTimeline.mark(StartupTimeline.CACHED_UI_SHOWN);
+            ma.onUserAuthenticated();
+        }
+
+        if (!layerClient.isConnected()) {
+
+            //A user will have to authenticate once the connection is up, so get the connection to
+            // the identity provider ready in the meantime
+            if (!layerClient.isAuthenticated())
+                authenticationListener.warmUp();
+
+            //If Layer is not connected, make sure we connect in order to send/receive messages.
+            // MyConnectionListener.java handles the callbacks associated with Connection, and
+            // will start the Authentication process once the connection is established
+            if (!layerClient.isConnecting()) {
+                StartupTimeline.mark(StartupTimeline.CONNECT_STARTED);
+                layerClient.connect();
+            }
+
+        } else if (!layerClient.isAuthenticated()) {
+
+            //If the client is already connected, try to authenticate a user on this device.
+            // MyAuthenticationListener.java handles the callbacks associated with Authentication
+            // and will start the Conversation View once the user is authenticated
+            layerClient.authenticate();
+
+        } else {
+            Log.v(TAG, "Already connected and authenticated");
+        }
+    }
+}
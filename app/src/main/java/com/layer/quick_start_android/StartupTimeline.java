@@ -0,0 +1,67 @@
+package com.layer.quick_start_android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Records when each step of app startup happened, so the time it takes to get from launch to the
+ * first messages on screen can be measured.
+ *
+ * Each step is only recorded the first time it happens. The whole timeline is logged once the
+ * first messages have been drawn.
+ */
+public class StartupTimeline {
+
+    private static final String TAG = StartupTimeline.class.getSimpleName();
+
+    //The steps, in the order they usually happen
+    public static final String ACTIVITY_CREATED = "activity_created";
+    public static final String CLIENT_CREATED = "client_created";
+    public static final String CACHED_UI_SHOWN = "cached_ui_shown";
+    public static final String CONNECT_STARTED = "connect_started";
+    public static final String CONNECTED = "connected";
+    public static final String AUTH_CHALLENGE = "auth_challenge";
+    public static final String AUTHENTICATED = "authenticated";
+    public static final String UI_READY = "ui_ready";
+    public static final String FIRST_MESSAGES_DRAWN = "first_messages_drawn";
+
+    private static final ArrayList<String> steps = new ArrayList<>();
+    private static final ArrayList<Long> times = new ArrayList<>();
+    private static boolean finished;
+
+    //Records the step, unless it has already happened
+    public static synchronized void mark(String step) {
+        if (finished || steps.contains(step))
+            return;
+
+        steps.add(step);
+        times.add(SystemClock.elapsedRealtime());
+
+        if (FIRST_MESSAGES_DRAWN.equals(step)) {
+            finished = true;
+            Log.i(TAG, format());
+        }
+    }
+
+    //Returns how long after the first step this step happened, or -1 if it hasn't happened
+    public static synchronized long getElapsed(String step) {
+        int index = steps.indexOf(step);
+        if (index < 0)
+            return -1;
+
+        return times.get(index) - times.get(0);
+    }
+
+    //One line per step, with the time since the first step
+    public static synchronized String format() {
+        StringBuilder builder = new StringBuilder("Startup timeline:");
+        for (int i = 0; i < steps.size(); i++) {
+            builder.append("\n  +").append(times.get(i) - times.get(0)).append("ms ")
+                    .append(steps.get(i));
+        }
+
+        return builder.toString();
+    }
+}
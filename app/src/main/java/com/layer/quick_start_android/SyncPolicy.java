@@ -0,0 +1,142 @@
+package com.layer.quick_start_android;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.LayerClient.Options.HistoricSyncPolicy;
+import com.layer.sdk.exceptions.LayerException;
+import com.layer.sdk.listeners.LayerSyncListener;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.query.Query;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks how much history the SDK syncs after a user authenticates.
+ *
+ * Syncing ALL_MESSAGES on the first login is far too expensive for users with a long history,
+ * especially on devices with little memory. Unless a policy is forced, this picks one based on the
+ * device's memory class and on how many conversations the user had the last time the app synced on
+ * this device (the number of messages on the server isn't known before syncing, so the number of
+ * conversations stands in for it):
+ *
+ *  - Low memory devices, or users with many conversations, only get the last message of each
+ *    conversation. Older messages are synced on demand, when the user scrolls up to them.
+ *  - Users with few conversations on devices with plenty of memory get all messages.
+ *  - Everyone else gets the SDK's default, everything from the earliest unread message on.
+ *
+ * The policy is registered as a sync listener for as long as the LayerClient exists, and counts
+ * the user's conversations (on a background thread) after every sync.
+ */
+public class SyncPolicy implements LayerSyncListener {
+
+    private static final String TAG = SyncPolicy.class.getSimpleName();
+
+    private static final String PREFERENCES = "sync_policy";
+    private static final String KEY_CONVERSATION_COUNT = "conversation_count";
+
+    //Memory classes (in MB) at or below this count as low memory
+    public static final int LOW_MEMORY_CLASS = 64;
+
+    //Memory classes (in MB) at or above this can afford to sync everything
+    public static final int HIGH_MEMORY_CLASS = 128;
+
+    //Users with more conversations than this have a large history
+    public static final int LARGE_HISTORY_CONVERSATIONS = 50;
+
+    //Users with at most this many conversations have a small history
+    public static final int SMALL_HISTORY_CONVERSATIONS = 10;
+
+    private Context context;
+    private SharedPreferences preferences;
+
+    //Counts the conversations after a sync, off the thread the sync callbacks arrive on
+    private ExecutorService worker;
+
+    public SyncPolicy(Context context) {
+        this.context = context.getApplicationContext();
+        preferences = this.context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        worker = Executors.newSingleThreadExecutor();
+    }
+
+    //Returns the forced policy if there is one, otherwise picks one for this device and user
+    public HistoricSyncPolicy choose(HistoricSyncPolicy forced) {
+        if (forced != null)
+            return forced;
+
+        int memoryClass = getMemoryClass();
+        int conversations = getLastConversationCount();
+
+        HistoricSyncPolicy policy;
+        if (isLowMemory(memoryClass) || conversations > LARGE_HISTORY_CONVERSATIONS)
+            policy = HistoricSyncPolicy.FROM_LAST_MESSAGE;
+        else if (conversations >= 0 && conversations <= SMALL_HISTORY_CONVERSATIONS &&
+                memoryClass >= HIGH_MEMORY_CLASS)
+            policy = HistoricSyncPolicy.ALL_MESSAGES;
+        else
+            policy = HistoricSyncPolicy.FROM_EARLIEST_UNREAD_MESSAGE;
+
+        Log.v(TAG, "Using " + policy + " (memory class: " + memoryClass + "MB, conversations: " +
+                conversations + ")");
+        return policy;
+    }
+
+    //Remembers how many conversations the user has, for the next time a policy is picked. Can be
+    // called from any thread
+    public void recordConversationCount(long count) {
+        preferences.edit().putInt(KEY_CONVERSATION_COUNT, (int) Math.min(count, Integer.MAX_VALUE))
+                .apply();
+    }
+
+    //The number of conversations the last time it was recorded, or -1 if it never was
+    public int getLastConversationCount() {
+        return preferences.getInt(KEY_CONVERSATION_COUNT, -1);
+    }
+
+    public void onBeforeSync(LayerClient client) {
+
+    }
+
+    public void onSyncProgress(LayerClient client, int pctComplete) {
+
+    }
+
+    //Remembers how large the user's history is, for the next time a policy is picked
+    public void onAfterSync(final LayerClient client) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                long count = client.executeQueryForCount(Query.builder(Conversation.class)
+                        .build());
+                recordConversationCount(count);
+            }
+        });
+    }
+
+    public void onSyncError(LayerClient client, List<LayerException> errors) {
+
+    }
+
+    private int getMemoryClass() {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context
+                .ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass();
+    }
+
+    private boolean isLowMemory(int memoryClass) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context
+                    .ACTIVITY_SERVICE);
+            if (activityManager.isLowRamDevice())
+                return true;
+        }
+
+        return memoryClass <= LOW_MEMORY_CLASS;
+    }
+}
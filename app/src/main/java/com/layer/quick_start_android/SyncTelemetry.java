@@ -0,0 +1,119 @@
+package com.layer.quick_start_android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.exceptions.LayerException;
+import com.layer.sdk.listeners.LayerSyncListener;
+
+import java.util.List;
+
+/**
+ * Records how syncs with the Layer servers went during this run of the app.
+ *
+ * A sync lasts from onBeforeSync() to onAfterSync(). For each one, the telemetry records how long
+ * it took, how quickly it progressed (in percent per second) and how many errors it ran into, and
+ * logs a summary when it finishes. Totals are kept for the whole run, along with the number of
+ * historic messages that were requested on demand.
+ *
+ * The telemetry is registered as a sync listener for as long as the LayerClient exists, so it
+ * sees every sync, including the first one after a user authenticates and the ones that happen
+ * while the app is in the background. All methods can be called from any thread.
+ */
+public class SyncTelemetry implements LayerSyncListener {
+
+    private static final String TAG = SyncTelemetry.class.getSimpleName();
+
+    //When the current sync started, or -1 if there isn't one
+    private long startedAt = -1;
+    private int lastProgress;
+    private int errorsThisSync;
+
+    private int syncCount;
+    private int errorCount;
+    private int backfillCount;
+    private long totalSyncMs;
+    private long longestSyncMs;
+    private long lastSyncMs = -1;
+    private double lastProgressRate;
+
+    public synchronized void onBeforeSync(LayerClient client) {
+        startedAt = SystemClock.elapsedRealtime();
+        lastProgress = 0;
+        errorsThisSync = 0;
+    }
+
+    public synchronized void onSyncProgress(LayerClient client, int pctComplete) {
+        lastProgress = pctComplete;
+    }
+
+    public synchronized void onSyncError(LayerClient client, List<LayerException> errors) {
+        errorCount += errors.size();
+        errorsThisSync += errors.size();
+    }
+
+    public synchronized void onAfterSync(LayerClient client) {
+        if (startedAt < 0)
+            return;
+
+        lastSyncMs = SystemClock.elapsedRealtime() - startedAt;
+        startedAt = -1;
+
+        //A sync that finishes always ends up at 100%, even if the last progress update was lower
+        lastProgressRate = lastSyncMs > 0 ? 100 * 1000.0 / lastSyncMs : 0;
+
+        syncCount++;
+        totalSyncMs += lastSyncMs;
+        longestSyncMs = Math.max(longestSyncMs, lastSyncMs);
+
+        Log.v(TAG, "Sync took " + lastSyncMs + "ms (" + String.format("%.1f", lastProgressRate) +
+                "%/s, " + errorsThisSync + " errors, last progress update at " + lastProgress +
+                "%). " + format());
+    }
+
+    //Call when older messages are requested from the server because the user scrolled past what
+    // was synced
+    public synchronized void onBackfillRequested() {
+        backfillCount++;
+    }
+
+    public synchronized boolean isSyncing() {
+        return startedAt >= 0;
+    }
+
+    public synchronized int getSyncCount() {
+        return syncCount;
+    }
+
+    public synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized int getBackfillCount() {
+        return backfillCount;
+    }
+
+    //How long the last sync took, or -1 if none has finished yet
+    public synchronized long getLastSyncMs() {
+        return lastSyncMs;
+    }
+
+    public synchronized long getLongestSyncMs() {
+        return longestSyncMs;
+    }
+
+    public synchronized long getTotalSyncMs() {
+        return totalSyncMs;
+    }
+
+    //How quickly the last sync progressed, in percent per second
+    public synchronized double getLastProgressRate() {
+        return lastProgressRate;
+    }
+
+    public synchronized String format() {
+        return "syncs: " + syncCount + ", total: " + totalSyncMs + "ms, longest: " + longestSyncMs +
+                "ms, errors: " + errorCount + ", backfills: " + backfillCount;
+    }
+}
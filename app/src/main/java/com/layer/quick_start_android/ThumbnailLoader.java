@@ -0,0 +1,322 @@
+package com.layer.quick_start_android;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.layer.sdk.listeners.LayerProgressListener;
+import com.layer.sdk.messaging.MessagePart;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes image message parts into thumbnails off the main thread and hands them to ImageViews.
+ *
+ * Images are downsampled while they are decoded, so a thumbnail is never much bigger than the view
+ * it is shown in. Decoded thumbnails are kept in a memory cache that is bounded by bitmap size, and
+ * written to a disk cache so scrolling back through a conversation (or opening it again later)
+ * doesn't decode the original image again.
+ *
+ * The disk cache is bounded by its total size. Each file's modified time is bumped whenever it is
+ * read, and the least recently used files are deleted once the cache grows past its limit. Files
+ * are written under a temporary name and renamed into place once they are complete, so a thumbnail
+ * is never read while it is half written, even if the app dies during the write.
+ */
+public class ThumbnailLoader {
+
+    private static final String TAG = ThumbnailLoader.class.getSimpleName();
+
+    //Use up to 1/8th of the app's heap for thumbnails
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+
+    //Number of threads decoding thumbnails at the same time
+    private static final int DECODE_THREADS = 2;
+
+    private static final int JPEG_QUALITY = 85;
+
+    //The disk cache is trimmed back to this many bytes whenever it grows past it
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+
+    //Thumbnails are written to files with this suffix before they are renamed into place
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    //Temporary files older than this were left behind by a write that never finished
+    private static final long STALE_TEMP_FILE_MS = 60 * 1000;
+
+    private LruCache<String, Bitmap> memoryCache;
+    private File diskCacheDir;
+
+    //The total size of the files in the disk cache, or -1 until it has been measured. Guarded by
+    // diskCacheDir
+    private long diskCacheBytes = -1;
+
+    private ExecutorService decoder;
+    private Handler mainHandler;
+
+    public ThumbnailLoader(Context context) {
+        int maxBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVISOR);
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+
+        diskCacheDir = new File(context.getCacheDir(), "thumbnails");
+        decoder = Executors.newFixedThreadPool(DECODE_THREADS);
+        mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    //Shows a thumbnail of the part in the ImageView, no larger than targetSize pixels on either
+    // side. If the thumbnail isn't in memory, the view is cleared and filled in once it has been
+    // loaded. Must be called from the main thread
+    public void load(final MessagePart part, final ImageView view, final int targetSize) {
+
+        final String key = getKey(part, targetSize);
+        view.setTag(R.id.thumbnail_key, key);
+
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        decoder.execute(new Runnable() {
+            @Override
+            public void run() {
+
+                //The image hasn't been downloaded yet, so try again once it has been
+                if (!isCached(key) && !part.isContentReady()) {
+                    download(part, view, targetSize);
+                    return;
+                }
+
+                final Bitmap bitmap = loadInBackground(part, key, targetSize);
+                if (bitmap == null)
+                    return;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Only show the thumbnail if the view hasn't been recycled for another part
+                        if (key.equals(view.getTag(R.id.thumbnail_key)))
+                            view.setImageBitmap(bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    //Stops the view from being filled in by a load that is still running
+    public void cancel(ImageView view) {
+        view.setTag(R.id.thumbnail_key, null);
+        view.setImageDrawable(null);
+    }
+
+    //Returns true if the thumbnail has already been written to the disk cache
+    private boolean isCached(String key) {
+        return new File(diskCacheDir, key).exists();
+    }
+
+    //Downloads the part's content and loads the thumbnail into the view afterwards, as long as the
+    // view is still showing the same part
+    private void download(final MessagePart part, final ImageView view, final int targetSize) {
+        final String key = getKey(part, targetSize);
+
+        part.download(new LayerProgressListener() {
+            public void onProgressStart(MessagePart messagePart, Operation operation) {
+
+            }
+
+            public void onProgressUpdate(MessagePart messagePart, Operation operation, long
+                    bytes) {
+
+            }
+
+            public void onProgressComplete(MessagePart messagePart, Operation operation) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (key.equals(view.getTag(R.id.thumbnail_key)))
+                            load(part, view, targetSize);
+                    }
+                });
+            }
+
+            public void onProgressError(MessagePart messagePart, Operation operation, Throwable
+                    e) {
+                Log.w(TAG, "Could not download image part " + messagePart.getId(), e);
+            }
+        });
+    }
+
+    //Loads the thumbnail from the disk cache, or decodes it from the part's data. Runs on a
+    // decoder thread
+    private Bitmap loadInBackground(MessagePart part, String key, int targetSize) {
+
+        File file = new File(diskCacheDir, key);
+        if (file.exists()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), null);
+            if (bitmap != null) {
+                //Mark the file as recently used, so it is the last to be trimmed
+                file.setLastModified(System.currentTimeMillis());
+                memoryCache.put(key, bitmap);
+                return bitmap;
+            }
+        }
+
+        byte[] data = part.getData();
+        if (data == null)
+            return null;
+
+        //Work out how much the image can be shrunk while it is being decoded
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null)
+            return null;
+
+        memoryCache.put(key, bitmap);
+        writeToDisk(file, bitmap, part.getMimeType());
+        return bitmap;
+    }
+
+    //Saves a decoded thumbnail so it doesn't need to be decoded from the original again. The
+    // thumbnail only shows up under its real name once it has been written completely
+    private void writeToDisk(File file, Bitmap bitmap, String mimeType) {
+        if (!diskCacheDir.exists() && !diskCacheDir.mkdirs())
+            return;
+
+        //Keep transparency for PNGs, everything else is smaller as a JPEG
+        Bitmap.CompressFormat format = "image/png".equalsIgnoreCase(mimeType) ? Bitmap
+                .CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+
+        File temp = null;
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            //Every write gets its own temporary file, so two threads decoding the same part can't
+            // write into each other's file
+            temp = File.createTempFile(file.getName(), TEMP_SUFFIX, diskCacheDir);
+            out = new FileOutputStream(temp);
+            written = bitmap.compress(format, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache thumbnail", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not close thumbnail file", e);
+                    written = false;
+                }
+            }
+        }
+
+        if (temp == null)
+            return;
+
+        if (!written || !temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+
+        onFileWritten(file.length());
+    }
+
+    //Adds a new file to the size of the disk cache, and deletes the least recently used files if
+    // the cache has grown too big
+    private void onFileWritten(long bytes) {
+        synchronized (diskCacheDir) {
+            if (diskCacheBytes < 0)
+                diskCacheBytes = measureDiskCache();
+            else
+                diskCacheBytes += bytes;
+
+            if (diskCacheBytes > DISK_CACHE_MAX_BYTES)
+                trimDiskCache();
+        }
+    }
+
+    //Adds up the size of the disk cache, and deletes temporary files left behind by writes that
+    // never finished. Called with the diskCacheDir lock held
+    private long measureDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null)
+            return 0;
+
+        long total = 0;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                if (now - file.lastModified() > STALE_TEMP_FILE_MS)
+                    file.delete();
+                continue;
+            }
+
+            total += file.length();
+        }
+
+        return total;
+    }
+
+    //Deletes the least recently used thumbnails until the cache is back under its limit. Called
+    // with the diskCacheDir lock held
+    private void trimDiskCache() {
+        File[] files = diskCacheDir.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+
+        for (int i = 0; i < files.length && diskCacheBytes > DISK_CACHE_MAX_BYTES; i++) {
+            File file = files[i];
+
+            //Files that are still being written aren't counted yet
+            if (file.getName().endsWith(TEMP_SUFFIX))
+                continue;
+
+            long length = file.length();
+            if (file.delete())
+                diskCacheBytes -= length;
+        }
+    }
+
+    //Returns the largest power of two the image can be scaled down by while both sides stay at
+    // least as big as the target size
+    private static int getSampleSize(int width, int height, int targetSize) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    //Thumbnails of different sizes are cached separately. The key is also the disk cache file
+    // name, so anything that isn't safe in a file name is replaced
+    private static String getKey(MessagePart part, int targetSize) {
+        return part.getId().toString().replaceAll("[^A-Za-z0-9-]", "_") + "_" + targetSize;
+    }
+}
@@ -0,0 +1,46 @@
+package com.layer.quick_start_android;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Where the time-based helpers (ChangeCoalescer, TypingIndicatorPublisher and
+ * TypingPresenceTracker) get the current time from, and how they run work later.
+ *
+ * By default they use the uptime clock and run their work on the main thread. Swap in a fake
+ * Clock and Scheduler to test them without a Looper.
+ */
+public final class Timing {
+
+    //Where the current time comes from
+    public interface Clock {
+        long now();
+    }
+
+    //Runs work later
+    public interface Scheduler {
+        void schedule(Runnable runnable, long delayMillis);
+    }
+
+    //Milliseconds since boot, not counting deep sleep
+    public static final Clock UPTIME_CLOCK = new Clock() {
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+
+    private Timing() {
+    }
+
+    //Runs work on the main thread once the delay has passed
+    public static Scheduler mainThreadScheduler() {
+        return new Scheduler() {
+            private Handler handler = new Handler(Looper.getMainLooper());
+
+            public void schedule(Runnable runnable, long delayMillis) {
+                handler.postDelayed(runnable, delayMillis);
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+package com.layer.quick_start_android;
+
+import com.layer.sdk.listeners.LayerTypingIndicatorListener.TypingIndicator;
+import com.layer.sdk.messaging.Conversation;
+
+/**
+ * Tells the other participants when the local user is typing, without sending an indicator for
+ * every keystroke.
+ *
+ * The publisher is a small state machine. The first keystroke sends STARTED, and further keystrokes
+ * only send STARTED again once the resend interval has passed (so peers that joined late still see
+ * it). FINISHED is sent when the user stops typing for the idle timeout, when the message is sent or
+ * the input is cleared, or when the user starts typing in a different conversation. Only one
+ * conversation is ever in the STARTED state.
+ *
+ * While paused (because there is no connection), nothing is sent. Typing indicators are only
+ * useful in the moment, so they are dropped rather than queued, and the first keystroke after
+ * resuming sends STARTED again.
+ *
+ * All methods must be called from the same thread (the main thread, by default).
+ */
+public class TypingIndicatorPublisher {
+
+    //How often STARTED is sent while the user keeps typing
+    public static final long DEFAULT_RESEND_INTERVAL_MS = 3000;
+
+    //How long the user has to stop typing before FINISHED is sent
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 5000;
+
+    private Timing.Clock clock;
+    private Timing.Scheduler scheduler;
+    private long resendInterval;
+    private long idleTimeout;
+
+    //The conversation the user is typing in, or null if they aren't typing
+    private Conversation typingIn;
+
+    private long lastStartedAt;
+    private long lastKeystrokeAt;
+    private boolean idleCheckScheduled;
+    private boolean paused;
+
+    //Counters for how many indicators were sent, and how many keystrokes didn't need one
+    private long startedSent;
+    private long finishedSent;
+    private long suppressed;
+
+    private Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            idleCheckScheduled = false;
+            checkIdle();
+        }
+    };
+
+    //Uses the default interval and timeout, and runs the idle check on the main thread
+    public TypingIndicatorPublisher() {
+        this(Timing.UPTIME_CLOCK, Timing.mainThreadScheduler(), DEFAULT_RESEND_INTERVAL_MS,
+                DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    //Swap out the clock and scheduler to test without a Looper (see Timing.java)
+    public TypingIndicatorPublisher(Timing.Clock clock, Timing.Scheduler scheduler, long
+            resendInterval, long idleTimeout) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.resendInterval = resendInterval;
+        this.idleTimeout = idleTimeout;
+    }
+
+    //Call this on every keystroke in the conversation
+    public void onTyping(Conversation conversation) {
+        if (conversation == null)
+            return;
+
+        long now = clock.now();
+        lastKeystrokeAt = now;
+
+        if (paused) {
+            suppressed++;
+            return;
+        }
+
+        //Only one conversation can be in the typing state at a time
+        if (typingIn != null && typingIn != conversation)
+            finish();
+
+        if (typingIn == null || now - lastStartedAt >= resendInterval) {
+            typingIn = conversation;
+            lastStartedAt = now;
+            send(conversation, TypingIndicator.STARTED);
+        } else {
+            suppressed++;
+        }
+
+        if (!idleCheckScheduled) {
+            idleCheckScheduled = true;
+            scheduler.schedule(idleCheck, idleTimeout);
+        }
+    }
+
+    //Call this when the user sends the message or clears the input. Sends FINISHED if STARTED was
+    // sent
+    public void finish() {
+        if (typingIn == null)
+            return;
+
+        Conversation conversation = typingIn;
+        typingIn = null;
+        send(conversation, TypingIndicator.FINISHED);
+    }
+
+    //Stops sending indicators, for example while there is no connection. Peers stop showing the
+    // indicator on their own after a while, so nothing is sent to end the current one
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        if (paused)
+            typingIn = null;
+    }
+
+    public long getStartedSent() {
+        return startedSent;
+    }
+
+    public long getFinishedSent() {
+        return finishedSent;
+    }
+
+    //Number of keystrokes that didn't send an indicator
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    //Sends FINISHED if the user stopped typing long enough ago, otherwise checks again once the
+    // timeout could have passed
+    private void checkIdle() {
+        if (typingIn == null)
+            return;
+
+        long idleFor = clock.now() - lastKeystrokeAt;
+        if (idleFor >= idleTimeout) {
+            finish();
+        } else {
+            idleCheckScheduled = true;
+            scheduler.schedule(idleCheck, idleTimeout - idleFor);
+        }
+    }
+
+    private void send(Conversation conversation, TypingIndicator indicator) {
+        if (indicator == TypingIndicator.STARTED)
+            startedSent++;
+        else
+            finishedSent++;
+
+        conversation.send(indicator);
+    }
+}
@@ -0,0 +1,154 @@
+package com.layer.quick_start_android;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of which participants are typing in the active conversation and builds the
+ * "X, Y are typing" label for them.
+ *
+ * Typers are kept in the order they started typing, and adding or removing one is constant time.
+ * Each typer expires on their own if their FINISHED indicator never arrives, and the label is only
+ * rebuilt when someone starts or stops typing.
+ *
+ * All methods must be called from the same thread (the main thread, by default).
+ */
+public class TypingPresenceTracker {
+
+    //Peers re-send STARTED every few seconds while they type, so someone who hasn't sent one for
+    // this long has stopped typing
+    public static final long DEFAULT_EXPIRY_MS = 10000;
+
+    //Receives the new label whenever the set of typers changes
+    public interface Listener {
+        void onTypingLabelChanged(String label);
+    }
+
+    private Listener listener;
+    private Timing.Clock clock;
+    private Timing.Scheduler scheduler;
+    private long expiry;
+
+    //When each typer last sent STARTED, in the order they started typing
+    private LinkedHashMap<String, Long> typers;
+
+    //The label for the current typers
+    private String label;
+    private boolean expiryCheckScheduled;
+
+    private Runnable expiryCheck = new Runnable() {
+        @Override
+        public void run() {
+            expiryCheckScheduled = false;
+            expire();
+        }
+    };
+
+    //Uses the default expiry, and checks for expired typers on the main thread
+    public TypingPresenceTracker(Listener listener) {
+        this(listener, Timing.UPTIME_CLOCK, Timing.mainThreadScheduler(), DEFAULT_EXPIRY_MS);
+    }
+
+    //Swap out the clock and scheduler to test without a Looper (see Timing.java)
+    public TypingPresenceTracker(Listener listener, Timing.Clock clock, Timing.Scheduler scheduler,
+                                 long expiry) {
+        this.listener = listener;
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.expiry = expiry;
+        typers = new LinkedHashMap<>();
+        label = "";
+    }
+
+    //The user started (or is still) typing
+    public void onStarted(String userId) {
+
+        //Re-inserting an existing key keeps its place in the order, so this only refreshes the
+        // timestamp for someone who is already typing
+        boolean added = typers.put(userId, clock.now()) == null;
+
+        if (!expiryCheckScheduled) {
+            expiryCheckScheduled = true;
+            scheduler.schedule(expiryCheck, expiry);
+        }
+
+        if (added)
+            onTypersChanged();
+    }
+
+    //The user isn't typing anymore
+    public void onFinished(String userId) {
+        if (typers.remove(userId) != null)
+            onTypersChanged();
+    }
+
+    //Forgets everyone, for example when switching conversations
+    public void clear() {
+        if (typers.isEmpty())
+            return;
+
+        typers.clear();
+        onTypersChanged();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getTyperCount() {
+        return typers.size();
+    }
+
+    //Drops the typers that haven't sent STARTED for too long, and checks again when the next one
+    // could expire
+    private void expire() {
+        long now = clock.now();
+        long oldest = Long.MAX_VALUE;
+        boolean removed = false;
+
+        Iterator<Map.Entry<String, Long>> it = typers.entrySet().iterator();
+        while (it.hasNext()) {
+            long startedAt = it.next().getValue();
+            if (now - startedAt >= expiry) {
+                it.remove();
+                removed = true;
+            } else {
+                oldest = Math.min(oldest, startedAt);
+            }
+        }
+
+        if (!typers.isEmpty()) {
+            expiryCheckScheduled = true;
+            scheduler.schedule(expiryCheck, oldest + expiry - now);
+        }
+
+        if (removed)
+            onTypersChanged();
+    }
+
+    //Rebuilds the label and passes it on
+    private void onTypersChanged() {
+        label = buildLabel();
+        listener.onTypingLabelChanged(label);
+    }
+
+    //Format the text to display in the conversation view
+    private String buildLabel() {
+
+        //No one is typing, so clear the text
+        if (typers.isEmpty())
+            return "";
+
+        //Name all the users that are typing (and make sure the text is grammatically correct)
+        StringBuilder builder = new StringBuilder();
+        for (String userId : typers.keySet()) {
+            if (builder.length() > 0)
+                builder.append(", ");
+            builder.append(userId);
+        }
+
+        builder.append(typers.size() == 1 ? " is typing" : " are typing");
+        return builder.toString();
+    }
+}
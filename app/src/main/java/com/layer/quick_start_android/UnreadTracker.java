@@ -0,0 +1,122 @@
+package com.layer.quick_start_android;
+
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Counts the unread messages in every conversation, and keeps a read cursor for each one.
+ *
+ * The cursor is the position of the newest message the user has had on screen. Everything at or
+ * before it counts as read. Each conversation also keeps the positions of its unread messages, so
+ * the counts are updated one message at a time as messages are inserted, read or deleted, and the
+ * history is never scanned. The first unread message is the first entry in that set.
+ *
+ * All methods must be called from the main thread.
+ */
+public class UnreadTracker {
+
+    //Receives the new count whenever a conversation's unread count changes
+    public interface Listener {
+        void onUnreadCountChanged(Uri conversationId, int unreadCount);
+    }
+
+    //The read cursor and unread messages of a single conversation
+    private static class ConversationState {
+        long cursor = -1;
+        TreeSet<Long> unread = new TreeSet<>();
+    }
+
+    private Listener listener;
+    private HashMap<Uri, ConversationState> conversations;
+
+    //The sum of every conversation's count
+    private int totalUnread;
+
+    public UnreadTracker(Listener listener) {
+        this.listener = listener;
+        conversations = new HashMap<>();
+    }
+
+    //A message someone else sent, which the local user hasn't read yet, was added. Messages at or
+    // before the read cursor have already been seen, so they don't count
+    public void onUnreadMessage(Uri conversationId, long position) {
+        ConversationState state = getState(conversationId);
+        if (position <= state.cursor || !state.unread.add(position))
+            return;
+
+        totalUnread++;
+        notifyChanged(conversationId, state);
+    }
+
+    //The message was read (on this device or another one) or deleted
+    public void onMessageGone(Uri conversationId, long position) {
+        ConversationState state = conversations.get(conversationId);
+        if (state == null || !state.unread.remove(position))
+            return;
+
+        totalUnread--;
+        notifyChanged(conversationId, state);
+    }
+
+    //The message at this position is on screen, so it and everything before it has been read
+    public void advanceCursor(Uri conversationId, long position) {
+        ConversationState state = getState(conversationId);
+        if (position <= state.cursor)
+            return;
+
+        state.cursor = position;
+        if (state.unread.isEmpty() || state.unread.first() > position)
+            return;
+
+        //Only the unread messages that were passed are touched
+        int before = state.unread.size();
+        state.unread.headSet(position, true).clear();
+        totalUnread -= before - state.unread.size();
+        notifyChanged(conversationId, state);
+    }
+
+    //The conversation was deleted
+    public void remove(Uri conversationId) {
+        ConversationState state = conversations.remove(conversationId);
+        if (state == null || state.unread.isEmpty())
+            return;
+
+        totalUnread -= state.unread.size();
+        listener.onUnreadCountChanged(conversationId, 0);
+    }
+
+    public int getUnreadCount(Uri conversationId) {
+        ConversationState state = conversations.get(conversationId);
+        return (state == null) ? 0 : state.unread.size();
+    }
+
+    public int getTotalUnreadCount() {
+        return totalUnread;
+    }
+
+    //Returns the position of the oldest unread message in the conversation, or -1 if everything
+    // has been read
+    public long getFirstUnreadPosition(Uri conversationId) {
+        ConversationState state = conversations.get(conversationId);
+        if (state == null || state.unread.isEmpty())
+            return -1;
+
+        return state.unread.first();
+    }
+
+    private ConversationState getState(Uri conversationId) {
+        ConversationState state = conversations.get(conversationId);
+        if (state == null) {
+            state = new ConversationState();
+            conversations.put(conversationId, state);
+        }
+
+        return state;
+    }
+
+    private void notifyChanged(Uri conversationId, ConversationState state) {
+        listener.onUnreadCountChanged(conversationId, state.unread.size());
+    }
+}